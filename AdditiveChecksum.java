@@ -0,0 +1,30 @@
+public class AdditiveChecksum implements PacketIntegrity {
+    /*
+     * The original check: seqnum + acknum + every payload byte + every
+     * SACK edge, truncated to 16 bits. Cheap, but blind to reordered
+     * bytes and to errors that cancel out.
+     */
+
+    public int checksum(Packet packet) {
+        int checksum = packet.getSeqnum() + packet.getAcknum();
+        byte[] payload = packet.payloadBytes();
+        if (payload != null) {
+            int i = 0;
+            for (int end = payload.length & ~3; i < end; i += 4) {
+                checksum += (payload[i] & 0xFF) + (payload[i + 1] & 0xFF)
+                          + (payload[i + 2] & 0xFF) + (payload[i + 3] & 0xFF);
+            }
+            for (; i < payload.length; i++) {
+                checksum += (payload[i] & 0xFF);
+            }
+        }
+        for (int i = 0; i < packet.getSackBlockCount(); i++) {
+            checksum += packet.getSackLeft(i) + packet.getSackRight(i);
+        }
+        return checksum & 0xFFFF;
+    }
+
+    public String getName() {
+        return "additive";
+    }
+}
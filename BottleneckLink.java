@@ -0,0 +1,143 @@
+import java.util.function.DoubleSupplier;
+
+public class BottleneckLink implements Link
+{
+    // A link of fixed bandwidth (bytes per time unit) followed by a fixed
+    // propagation delay.  Packets wait in a FIFO buffer that holds at
+    // most capacity packets, counting the one being transmitted, and a
+    // full buffer drops new arrivals (drop-tail).  With RED the link also
+    // drops arrivals early, with a probability that grows with the
+    // average queue length between two thresholds, after Floyd and
+    // Jacobson, "Random Early Detection Gateways for Congestion
+    // Avoidance" (1993).
+    private static final double RED_WEIGHT = 0.002;
+
+    private double bandwidth;
+    private double propagation;
+
+    // Departure times of the queued packets, oldest first, in a ring
+    private double[] departures;
+    private int head;
+    private int size;
+    private double idleSince;
+
+    private boolean red;
+    private double minThreshold;
+    private double maxThreshold;
+    private double maxP;
+    private double avg;
+    private int count;  // arrivals since the last early drop
+    private DoubleSupplier random;
+
+    private int drops;
+
+    public BottleneckLink(double bandwidth, double propagation, int capacity)
+    {
+        this.bandwidth = bandwidth;
+        this.propagation = propagation;
+        departures = new double[Math.max(1, capacity)];
+        head = 0;
+        size = 0;
+        idleSince = 0;
+        red = false;
+        drops = 0;
+    }
+
+    // Turn on RED.  random supplies the uniform draws for early drops
+    public BottleneckLink useRed(double minThreshold, double maxThreshold,
+                                 double maxP, DoubleSupplier random)
+    {
+        red = true;
+        this.minThreshold = minThreshold;
+        this.maxThreshold = Math.max(maxThreshold, minThreshold + 1);
+        this.maxP = maxP;
+        this.random = random;
+        avg = 0;
+        count = -1;
+        return this;
+    }
+
+    public double send(double now, int bytes)
+    {
+        double transmission = bytes / bandwidth;
+
+        // Packets whose transmission has finished have left the buffer
+        while ((size > 0) && (departures[head] <= now))
+        {
+            idleSince = departures[head];
+            head = (head + 1) % departures.length;
+            size--;
+        }
+
+        if (red && earlyDrop(now, transmission))
+        {
+            drops++;
+            return -1;
+        }
+
+        if (size == departures.length)
+        {
+            drops++;
+            return -1;
+        }
+
+        double start = now;
+        if (size > 0)
+        {
+            start = departures[(head + size - 1) % departures.length];
+        }
+
+        departures[(head + size) % departures.length] = start + transmission;
+        size++;
+        return start + transmission + propagation;
+    }
+
+    private boolean earlyDrop(double now, double transmission)
+    {
+        // While the link was idle the average decays as if packets of
+        // this size had arrived to an empty queue
+        if (size == 0)
+        {
+            avg *= Math.pow(1 - RED_WEIGHT, (now - idleSince) / transmission);
+        }
+        else
+        {
+            avg += RED_WEIGHT * (size - avg);
+        }
+
+        if (avg < minThreshold)
+        {
+            count = -1;
+            return false;
+        }
+
+        if (avg >= maxThreshold)
+        {
+            count = 0;
+            return true;
+        }
+
+        // Spread the drops out: the chance grows with the number of
+        // arrivals since the last one
+        count++;
+        double pb = maxP * (avg - minThreshold) / (maxThreshold - minThreshold);
+        double pa = (count * pb < 1) ? pb / (1 - count * pb) : 1;
+        if (random.getAsDouble() < pa)
+        {
+            count = 0;
+            return true;
+        }
+
+        return false;
+    }
+
+    public int getDrops()
+    {
+        return drops;
+    }
+
+    public String getName()
+    {
+        return red ? "red" : "droptail";
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class ChannelDeliverySink extends FileDeliverySink
+{
+    // Collects the lines in a large direct buffer per file and writes
+    // it to a FileChannel only when it fills, so a long run makes a
+    // handful of write calls instead of two per message.
+    public static final int DEFAULT_BUFFER = 1 << 20;
+
+    private int capacity;
+    private FileChannel[] channels = new FileChannel[3];
+    private ByteBuffer[] buffers = new ByteBuffer[3];
+
+    public ChannelDeliverySink(File directory) throws IOException
+    {
+        this(directory, DEFAULT_BUFFER);
+    }
+
+    public ChannelDeliverySink(File directory, int capacity) throws IOException
+    {
+        super(directory);
+        this.capacity = Math.max(capacity, 4096);
+        openDefault();
+    }
+
+    protected void open(int output, File file) throws IOException
+    {
+        channels[output] = FileChannel.open(file.toPath(),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+        buffers[output] = ByteBuffer.allocateDirect(capacity);
+    }
+
+    protected ByteBuffer buffer(int output, int needed) throws IOException
+    {
+        ByteBuffer buffer = buffers[output];
+        if (buffer.remaining() < needed)
+        {
+            flush(output);
+        }
+
+        return buffer;
+    }
+
+    protected void close(int output) throws IOException
+    {
+        flush(output);
+        channels[output].close();
+        channels[output] = null;
+        buffers[output] = null;
+    }
+
+    private void flush(int output) throws IOException
+    {
+        ByteBuffer buffer = buffers[output];
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channels[output].write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public String getName()
+    {
+        return "channel";
+    }
+}
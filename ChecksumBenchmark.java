@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.Random;
+
+public class ChecksumBenchmark
+{
+    // Compares the PacketIntegrity implementations: time per packet and
+    // the share of corrupted packets each one detects.
+    //
+    //   java ChecksumBenchmark [packets-per-trial] [corruption-trials]
+
+    private static final String[] NAMES = { "additive", "internet", "crc32c" };
+
+    public final static void main(String[] argv)
+    {
+        int timedPackets = (argv.length > 0) ? Integer.parseInt(argv[0]) : 2000000;
+        int trials = (argv.length > 1) ? Integer.parseInt(argv[1]) : 200000;
+        Random rand = new Random(1234);
+
+        Packet[] packets = makePackets(rand, 1024);
+
+        System.out.println("-- * Checksum benchmark * --");
+        System.out.println("Timed packets: " + timedPackets +
+                           "  corruption trials per model: " + trials);
+        System.out.println();
+        System.out.printf("%-10s %12s %14s %14s %14s%n", "checksum", "ns/packet",
+                          "toLayer3", "byte swap", "2-byte error");
+
+        for (String name : NAMES)
+        {
+            PacketIntegrity integrity = PacketIntegrity.forName(name, System.out);
+
+            // Warm up, then time
+            time(integrity, packets, timedPackets);
+            double ns = time(integrity, packets, timedPackets);
+
+            double channel = detection(integrity, packets, trials,
+                                       new Random(1), 0);
+            double swap = detection(integrity, packets, trials,
+                                    new Random(2), 1);
+            double burst = detection(integrity, packets, trials,
+                                     new Random(3), 2);
+
+            System.out.printf("%-10s %12.2f %13.4f%% %13.4f%% %13.4f%%%n",
+                              name, ns, 100 * channel, 100 * swap, 100 * burst);
+        }
+    }
+
+    /* Data packets like the simulator's (one repeated letter), data
+       packets with mixed bytes, and ACKs with and without SACK blocks */
+    private static Packet[] makePackets(Random rand, int count)
+    {
+        Packet[] packets = new Packet[count];
+        byte[] payload = new byte[NetworkSimulator.MAXDATASIZE];
+        int[] edges = { 0, 0, 0, 0 };
+
+        for (int i = 0; i < count; i++)
+        {
+            int seq = rand.nextInt(32);
+            switch (i % 4)
+            {
+                case 0:
+                    Arrays.fill(payload, (byte)('a' + rand.nextInt(26)));
+                    packets[i] = new Packet(seq, -1, 0, payload);
+                    break;
+
+                case 1:
+                    for (int j = 0; j < payload.length; j++)
+                    {
+                        payload[j] = (byte)(32 + rand.nextInt(95));
+                    }
+                    packets[i] = new Packet(seq, -1, 0, payload);
+                    break;
+
+                case 2:
+                    packets[i] = new Packet(-1, seq, 0);
+                    break;
+
+                default:
+                    packets[i] = new Packet(-1, seq, 0);
+                    edges[0] = (seq + 2) % 32;
+                    edges[1] = (seq + 4) % 32;
+                    edges[2] = (seq + 6) % 32;
+                    edges[3] = (seq + 7) % 32;
+                    packets[i].setSack(edges, 2);
+            }
+        }
+
+        return packets;
+    }
+
+    private static double time(PacketIntegrity integrity, Packet[] packets,
+                               int count)
+    {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            sink += integrity.checksum(packets[i & (packets.length - 1)]);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (sink == 42)
+        {
+            System.out.print("");
+        }
+        return (double)elapsed / count;
+    }
+
+    /* Fraction of corrupted packets whose checksum no longer matches.
+       Model 0 is NetworkSimulator's own corruption; model 1 swaps two
+       differing payload bytes; model 2 flips bits in two payload bytes */
+    private static double detection(PacketIntegrity integrity,
+                                    Packet[] packets, int trials,
+                                    Random rand, int model)
+    {
+        int corrupted = 0;
+        int detected = 0;
+
+        for (int t = 0; t < trials; t++)
+        {
+            Packet original = new Packet(packets[rand.nextInt(packets.length)]);
+            original.setChecksum(integrity.checksum(original));
+
+            Packet damaged;
+            if (model == 0)
+            {
+                damaged = NetworkSimulator.corruptPacket(original,
+                                                         rand.nextDouble());
+            }
+            else
+            {
+                byte[] payload = original.payloadBytes().clone();
+                if (payload.length < 2)
+                {
+                    continue;
+                }
+
+                int i = rand.nextInt(payload.length);
+                int j = rand.nextInt(payload.length - 1);
+                j = (j >= i) ? j + 1 : j;
+
+                if (model == 1)
+                {
+                    byte b = payload[i];
+                    payload[i] = payload[j];
+                    payload[j] = b;
+                }
+                else
+                {
+                    payload[i] ^= (byte)(1 + rand.nextInt(255));
+                    payload[j] ^= (byte)(1 + rand.nextInt(255));
+                }
+
+                damaged = new Packet(original);
+                damaged.setPayload(payload);
+            }
+
+            if (!damaged.getPayload().equals(original.getPayload()) ||
+                damaged.getSeqnum() != original.getSeqnum() ||
+                damaged.getAcknum() != original.getAcknum())
+            {
+                corrupted++;
+                if (integrity.checksum(damaged) != damaged.getChecksum())
+                {
+                    detected++;
+                }
+            }
+        }
+
+        return (corrupted == 0) ? 1.0 : (double)detected / corrupted;
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.PrintStream;
+
+public interface CongestionControl {
+    /*
+     * Sender-side congestion window, in packets. The sender never has
+     * more than getWindow() packets outstanding, and the window always
+     * stays between 1 and the configured WindowSize.
+     */
+
+    // New data acknowledged: acked packets left the window and rtt is the
+    // newest valid RTT sample (NaN if the ACK gave none)
+    void onAck(int acked, double rtt);
+
+    // Loss detected by duplicate ACKs, at most once per window of data
+    void onLoss();
+
+    // Retransmission timeout
+    void onTimeout();
+
+    int getWindow();
+
+    String getName();
+
+    // Pick an implementation by name: none, reno or delay. An unknown
+    // name is reported on log
+    static CongestionControl forName(String name, int maxWindow, PrintStream log) {
+        if (name.equals("reno")) {
+            return new RenoCongestionControl(maxWindow);
+        } else if (name.equals("delay")) {
+            return new DelayCongestionControl(maxWindow);
+        } else if (!name.equals("none")) {
+            log.println("Unknown congestion control \"" + name + "\", using none");
+        }
+        return new FixedWindow(maxWindow);
+    }
+}
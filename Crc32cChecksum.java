@@ -0,0 +1,42 @@
+import java.util.zip.CRC32C;
+
+public class Crc32cChecksum implements PacketIntegrity {
+    /*
+     * CRC-32C (Castagnoli) over the header fields, the payload and the
+     * SACK edges. The JVM maps java.util.zip.CRC32C onto the CPU's CRC
+     * instructions where it has them. Detects all burst errors up to 32
+     * bits and any reordering of bytes.
+     */
+
+    private final CRC32C crc = new CRC32C();
+    private final byte[] scratch = new byte[8];
+
+    public int checksum(Packet packet) {
+        crc.reset();
+        update(packet.getSeqnum(), packet.getAcknum());
+        byte[] payload = packet.payloadBytes();
+        if (payload != null) {
+            crc.update(payload, 0, payload.length);
+        }
+        for (int i = 0; i < packet.getSackBlockCount(); i++) {
+            update(packet.getSackLeft(i), packet.getSackRight(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private void update(int a, int b) {
+        scratch[0] = (byte) (a >>> 24);
+        scratch[1] = (byte) (a >>> 16);
+        scratch[2] = (byte) (a >>> 8);
+        scratch[3] = (byte) a;
+        scratch[4] = (byte) (b >>> 24);
+        scratch[5] = (byte) (b >>> 16);
+        scratch[6] = (byte) (b >>> 8);
+        scratch[7] = (byte) b;
+        crc.update(scratch, 0, 8);
+    }
+
+    public String getName() {
+        return "crc32c";
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.*;
+
+public class CsvResultWriter implements ResultWriter
+{
+    // One row per run, in the column order of SimulationResult.FIELDS.
+    // The header is written only when the file is new or empty, so runs
+    // can keep appending to the same file.
+    private Writer out;
+
+    public CsvResultWriter(File file) throws IOException
+    {
+        boolean header = !file.exists() || (file.length() == 0);
+        out = new BufferedWriter(new FileWriter(file, true));
+        if (header)
+        {
+            writeHeader();
+        }
+    }
+
+    /* Write to a stream, such as System.out, header first */
+    public CsvResultWriter(Writer out) throws IOException
+    {
+        this.out = out;
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException
+    {
+        out.write(String.join(",", SimulationResult.FIELDS));
+        out.write('\n');
+    }
+
+    public synchronized void write(SimulationResult result) throws IOException
+    {
+        Object[] values = result.toArray();
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+            {
+                out.write(',');
+            }
+            out.write(quote(String.valueOf(values[i])));
+        }
+        out.write('\n');
+    }
+
+    public synchronized void close() throws IOException
+    {
+        out.close();
+    }
+
+    private static String quote(String value)
+    {
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0))
+        {
+            return value;
+        }
+
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
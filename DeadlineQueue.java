@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+public class DeadlineQueue {
+    /*
+     * Logical timers, at most one per sequence number, kept in a binary
+     * heap ordered by deadline. position[] maps each sequence number to
+     * its heap slot, so arming, re-arming and cancelling a timer are all
+     * O(log n) and the earliest deadline is always at the top. Used to
+     * multiplex per-packet timers onto the simulator's single A timer.
+     */
+
+    private final double[] deadlines;
+    private final int[] heap;
+    private final int[] position;  // -1 when not armed
+    private int size;
+
+    public DeadlineQueue(int limitSeqNo) {
+        deadlines = new double[limitSeqNo];
+        heap = new int[limitSeqNo];
+        position = new int[limitSeqNo];
+        Arrays.fill(position, -1);
+    }
+
+    // Arm the timer for seq, or move its deadline if it is already armed
+    public void arm(int seq, double deadline) {
+        if (position[seq] == -1) {
+            position[seq] = size;
+            heap[size++] = seq;
+        }
+        deadlines[seq] = deadline;
+        siftDown(position[seq]);
+        siftUp(position[seq]);
+    }
+
+    public void cancel(int seq) {
+        if (seq < 0 || seq >= position.length || position[seq] == -1) return;
+        int i = position[seq];
+        position[seq] = -1;
+        size--;
+        if (i != size) {
+            heap[i] = heap[size];
+            position[heap[i]] = i;
+            siftDown(i);
+            siftUp(i);
+        }
+    }
+
+    public boolean isArmed(int seq) {
+        return position[seq] != -1;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Sequence number with the earliest deadline; the queue must not be empty
+    public int peek() {
+        return heap[0];
+    }
+
+    public double peekDeadline() {
+        return deadlines[heap[0]];
+    }
+
+    public int poll() {
+        int seq = heap[0];
+        cancel(seq);
+        return seq;
+    }
+
+    private boolean before(int i, int j) {
+        return deadlines[heap[i]] < deadlines[heap[j]];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left;
+            if (left + 1 < size && before(left + 1, left)) smallest = left + 1;
+            if (!before(smallest, i)) break;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int seq = heap[i];
+        heap[i] = heap[j];
+        heap[j] = seq;
+        position[heap[i]] = i;
+        position[heap[j]] = j;
+    }
+}
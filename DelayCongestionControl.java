@@ -0,0 +1,64 @@
+public class DelayCongestionControl implements CongestionControl {
+    /*
+     * Delay-based window in the style of TCP Vegas. The smallest RTT seen
+     * is taken as the path's base RTT, and the packets this flow has
+     * queued in the network are estimated as
+     *
+     *     queued = cwnd * (1 - baseRtt / rtt)
+     *
+     * The window grows by about one packet per window while fewer than
+     * ALPHA packets are queued and shrinks the same way above BETA, so it
+     * settles before the bottleneck queue fills instead of after a loss.
+     * It slow-starts until the first sign of queueing. Losses and
+     * timeouts are handled as in Reno, since a delay signal cannot see
+     * every loss.
+     */
+
+    private static final double ALPHA = 1;
+    private static final double BETA = 3;
+
+    private final int maxWindow;
+    private double cwnd = 1;
+    private double baseRtt = Double.POSITIVE_INFINITY;
+    private boolean slowStart = true;
+
+    public DelayCongestionControl(int maxWindow) {
+        this.maxWindow = maxWindow;
+    }
+
+    public void onAck(int acked, double rtt) {
+        if (Double.isNaN(rtt)) return;
+        baseRtt = Math.min(baseRtt, rtt);
+        double queued = cwnd * (1 - baseRtt / rtt);
+
+        if (slowStart && queued < ALPHA) {
+            cwnd += acked;
+        } else {
+            slowStart = false;
+            if (queued < ALPHA) {
+                cwnd += acked / cwnd;
+            } else if (queued > BETA) {
+                cwnd -= acked / cwnd;
+            }
+        }
+        cwnd = Math.max(1, Math.min(cwnd, maxWindow));
+    }
+
+    public void onLoss() {
+        slowStart = false;
+        cwnd = Math.max(cwnd / 2, 1);
+    }
+
+    public void onTimeout() {
+        slowStart = false;
+        cwnd = 1;
+    }
+
+    public int getWindow() {
+        return Math.max(1, (int) cwnd);
+    }
+
+    public String getName() {
+        return "delay";
+    }
+}
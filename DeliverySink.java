@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+public interface DeliverySink
+{
+    // Where layer 5 puts the messages the protocol delivers.  B's
+    // deliveries are the ones the legacy OutputFile holds; A's only
+    // occur in duplex mode, and the other entities' with -Dflows.
+    public void deliver(int entity, String data) throws IOException;
+
+    // A contiguous run of packets released at once, such as a receive
+    // buffer drained after a gap was filled
+    default void deliver(int entity, Packet[] run, int count) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            deliver(entity, run[i].getPayload());
+        }
+    }
+
+    // Write out anything still buffered and release the sink
+    public void close() throws IOException;
+
+    public String getName();
+}
@@ -0,0 +1,271 @@
+public class DeliveryVerifier
+{
+    // Checks each delivery against the messages the sources generated,
+    // as the run goes, so a long run can be validated without keeping
+    // its output.  Every direction keeps the hashes of the messages
+    // generated but not yet delivered, oldest first; a delivery must
+    // match the oldest.  One that does not is classified by looking
+    // around it: a match a short way on skipped messages (a gap), a
+    // match among the skipped ones arrived late (reordered), a match
+    // among the last ones delivered is a duplicate, a match further on
+    // is a longer gap, where the verifier resynchronises, and anything
+    // else is corrupt.  The sources repeat a message every 26, so the
+    // short look ahead and the look back together stay within that, and
+    // with them a gap of more than 12 reads as a duplicate or as a gap
+    // shorter by a multiple of 26; either way the deliveries after it
+    // are back in step.  The delivered stream is also folded into a
+    // rolling hash, which is equal between runs that delivered the same
+    // messages in the same order.
+    private static final int AHEAD = 12;
+    private static final int BEHIND = 13;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long ROLL = 1000003;
+
+    private static final String[] KINDS =
+        { "gap", "reordered", "duplicate", "corrupt" };
+
+    private static final int GAP = 0;
+    private static final int REORDER = 1;
+    private static final int DUPLICATE = 2;
+    private static final int CORRUPT = 3;
+
+    // Per receiving entity: the pending hashes in a growable ring, the
+    // last delivered and the skipped ones in fixed rings
+    private long[][] pending;
+    private int[] head;
+    private int[] size;
+    private long[][] recent;
+    private int[] recentCount;
+    private long[][] skipped;
+    private int[] skippedCount;
+    private long[] delivered;
+
+    private long hash;
+    private long inOrder;
+    private long[] violations;
+
+    private String firstViolation;
+    private double firstViolationTime;
+
+    public DeliveryVerifier(int entities)
+    {
+        pending = new long[entities][16];
+        head = new int[entities];
+        size = new int[entities];
+        recent = new long[entities][BEHIND];
+        recentCount = new int[entities];
+        skipped = new long[entities][BEHIND];
+        skippedCount = new int[entities];
+        delivered = new long[entities];
+        violations = new long[KINDS.length];
+        hash = 0;
+        inOrder = 0;
+    }
+
+    /* A message generated at source, to be delivered at source ^ 1 */
+    public void generated(int source, byte[] data, int length)
+    {
+        int entity = source ^ 1;
+        long h = FNV_OFFSET;
+        for (int i = 0; i < length; i++)
+        {
+            h = (h ^ (data[i] & 0xff)) * FNV_PRIME;
+        }
+
+        if (size[entity] == pending[entity].length)
+        {
+            long[] grown = new long[2 * size[entity]];
+            for (int i = 0; i < size[entity]; i++)
+            {
+                grown[i] = pending[entity][(head[entity] + i) % size[entity]];
+            }
+            pending[entity] = grown;
+            head[entity] = 0;
+        }
+        pending[entity][(head[entity] + size[entity]) % pending[entity].length] = h;
+        size[entity]++;
+    }
+
+    public void delivered(int entity, String data, double time)
+    {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < data.length(); i++)
+        {
+            h = (h ^ (data.charAt(i) & 0xff)) * FNV_PRIME;
+        }
+        delivered(entity, h, time);
+    }
+
+    public void delivered(int entity, byte[] data, double time)
+    {
+        long h = FNV_OFFSET;
+        for (int i = 0; (data != null) && (i < data.length); i++)
+        {
+            h = (h ^ (data[i] & 0xff)) * FNV_PRIME;
+        }
+        delivered(entity, h, time);
+    }
+
+    private void delivered(int entity, long h, double time)
+    {
+        hash = hash * ROLL + h;
+        delivered[entity]++;
+
+        long[] ring = pending[entity];
+        if ((size[entity] > 0) && (ring[head[entity]] == h))
+        {
+            pop(entity, 1);
+            inOrder++;
+            return;
+        }
+
+        // Skipped ahead of some messages?
+        int ahead = Math.min(size[entity], AHEAD + 1);
+        for (int k = 1; k < ahead; k++)
+        {
+            if (ring[(head[entity] + k) % ring.length] == h)
+            {
+                skip(entity, k, time);
+                return;
+            }
+        }
+
+        // A skipped message arriving late?
+        int n = Math.min(skippedCount[entity], BEHIND);
+        for (int i = 0; i < n; i++)
+        {
+            int slot = (skippedCount[entity] - 1 - i) % BEHIND;
+            if (skipped[entity][slot] == h)
+            {
+                skipped[entity][slot] = 0;
+                violation(REORDER, 1, entity, time);
+                return;
+            }
+        }
+
+        // A message already delivered?
+        n = Math.min(recentCount[entity], BEHIND);
+        for (int i = 0; i < n; i++)
+        {
+            if (recent[entity][(recentCount[entity] - 1 - i) % BEHIND] == h)
+            {
+                violation(DUPLICATE, 1, entity, time);
+                return;
+            }
+        }
+
+        // A longer gap?
+        for (int k = AHEAD + 1; k < size[entity]; k++)
+        {
+            if (ring[(head[entity] + k) % ring.length] == h)
+            {
+                skip(entity, k, time);
+                return;
+            }
+        }
+
+        violation(CORRUPT, 1, entity, time);
+    }
+
+    /* The delivery matched the pending message k on: skip the k before it */
+    private void skip(int entity, int k, double time)
+    {
+        long[] ring = pending[entity];
+        for (int i = 0; i < k; i++)
+        {
+            push(skipped[entity], skippedCount[entity]++,
+                 ring[(head[entity] + i) % ring.length]);
+        }
+        pop(entity, k + 1);
+        violation(GAP, k, entity, time);
+    }
+
+    private void pop(int entity, int count)
+    {
+        long[] ring = pending[entity];
+        for (int i = 0; i < count; i++)
+        {
+            push(recent[entity], recentCount[entity]++, ring[head[entity]]);
+            head[entity] = (head[entity] + 1) % ring.length;
+        }
+        size[entity] -= count;
+    }
+
+    private static void push(long[] ring, int index, long h)
+    {
+        ring[index % ring.length] = h;
+    }
+
+    private void violation(int kind, int count, int entity, double time)
+    {
+        violations[kind] += count;
+        if (firstViolation == null)
+        {
+            firstViolation = KINDS[kind] + " at entity " + entity +
+                             ", delivery " + delivered[entity];
+            firstViolationTime = time;
+        }
+    }
+
+    public long getInOrder()
+    {
+        return inOrder;
+    }
+
+    public long getGaps()
+    {
+        return violations[GAP];
+    }
+
+    public long getReordered()
+    {
+        return violations[REORDER];
+    }
+
+    public long getDuplicates()
+    {
+        return violations[DUPLICATE];
+    }
+
+    public long getCorrupt()
+    {
+        return violations[CORRUPT];
+    }
+
+    // Deliveries that broke the order, and messages skipped by gaps
+    public long getViolations()
+    {
+        return violations[GAP] + violations[REORDER] +
+               violations[DUPLICATE] + violations[CORRUPT];
+    }
+
+    // Messages generated but still waiting for delivery, such as those
+    // in flight when the run stopped
+    public long getUndelivered()
+    {
+        long total = 0;
+        for (int entity = 0; entity < size.length; entity++)
+        {
+            total += size[entity];
+        }
+
+        return total;
+    }
+
+    public long getHash()
+    {
+        return hash;
+    }
+
+    // "kind at entity e, delivery n", or null while all is well
+    public String getFirstViolation()
+    {
+        return firstViolation;
+    }
+
+    public double getFirstViolationTime()
+    {
+        return firstViolationTime;
+    }
+}
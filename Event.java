@@ -4,6 +4,7 @@ public class Event
     private int type;
     private int entity;
     private Packet packet;
+    private TimerHandle timer;
     
     public Event(double t, int ty, int ent)
     {
@@ -18,7 +19,16 @@ public class Event
         time = t;
         type = ty;
         entity = ent;
-        packet = new Packet(p);
+        packet = p.isFrozen() ? p : new Packet(p).freeze();
+    }
+    
+    public Event(double t, int ty, int ent, TimerHandle h)
+    {
+        time = t;
+        type = ty;
+        entity = ent;
+        packet = null;
+        timer = h;
     }
             
     public boolean setTime(double t)
@@ -43,8 +53,8 @@ public class Event
     
     public boolean setEntity(int n)
     {
-        if ((n != NetworkSimulator.A) &&
-            (n != NetworkSimulator.B))
+        // Any pair's entities; A and B are pair 0
+        if (n < 0)
         {
             entity = -1;
             return false;
@@ -89,6 +99,11 @@ public class Event
         return packet;
     }
     
+    public TimerHandle getTimer()
+    {
+        return timer;
+    }
+    
     public String toString()
     {
         return("time: " + time + "  type: " + type + "  entity: " + entity +
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public abstract class FileDeliverySink implements DeliverySink
+{
+    // The legacy output files, one line per message: B's deliveries go
+    // to OutputFile, A's to OutputFileA and those of the other pairs to
+    // OutputFileFlows, each line led by the entity.  Lines are encoded
+    // straight into a byte buffer per file, and subclasses decide how
+    // that buffer reaches the disk.  OutputFile is always created, the
+    // others on their first delivery.
+    private static final String[] NAMES =
+        { "OutputFile", "OutputFileA", "OutputFileFlows" };
+
+    // Bytes a line needs besides its payload: the entity, a space and
+    // the newline
+    private static final int LINE_OVERHEAD = 16;
+
+    private File directory;
+    private boolean[] opened;
+
+    protected FileDeliverySink(File directory)
+    {
+        this.directory = directory;
+        opened = new boolean[NAMES.length];
+    }
+
+    /* Called by the subclass constructor once it is ready */
+    protected void openDefault() throws IOException
+    {
+        ensureOpen(0);
+    }
+
+    protected abstract void open(int output, File file) throws IOException;
+
+    /* The output's buffer, with at least needed bytes free */
+    protected abstract ByteBuffer buffer(int output, int needed) throws IOException;
+
+    /* Write out what is left in the output's buffer and close it */
+    protected abstract void close(int output) throws IOException;
+
+    public void deliver(int entity, String data) throws IOException
+    {
+        int output = output(entity);
+        ByteBuffer buffer = buffer(output, data.length() + LINE_OVERHEAD);
+        prefix(buffer, output, entity);
+        for (int i = 0; i < data.length(); i++)
+        {
+            buffer.put((byte)data.charAt(i));
+        }
+        buffer.put((byte)'\n');
+    }
+
+    public void deliver(int entity, Packet[] run, int count) throws IOException
+    {
+        int output = output(entity);
+        for (int i = 0; i < count; i++)
+        {
+            byte[] payload = run[i].payloadBytes();
+            int length = (payload == null) ? 0 : payload.length;
+            ByteBuffer buffer = buffer(output, length + LINE_OVERHEAD);
+            prefix(buffer, output, entity);
+            if (length > 0)
+            {
+                buffer.put(payload);
+            }
+            buffer.put((byte)'\n');
+        }
+    }
+
+    public void close() throws IOException
+    {
+        for (int output = 0; output < NAMES.length; output++)
+        {
+            if (opened[output])
+            {
+                opened[output] = false;
+                close(output);
+            }
+        }
+    }
+
+    private int output(int entity) throws IOException
+    {
+        int output = (entity == NetworkSimulator.B) ? 0 :
+                     (entity == NetworkSimulator.A) ? 1 : 2;
+        ensureOpen(output);
+        return output;
+    }
+
+    private void ensureOpen(int output) throws IOException
+    {
+        if (!opened[output])
+        {
+            open(output, new File(directory, NAMES[output]));
+            opened[output] = true;
+        }
+    }
+
+    private static void prefix(ByteBuffer buffer, int output, int entity)
+    {
+        if (output == 2)
+        {
+            String s = Integer.toString(entity);
+            for (int i = 0; i < s.length(); i++)
+            {
+                buffer.put((byte)s.charAt(i));
+            }
+            buffer.put((byte)' ');
+        }
+    }
+}
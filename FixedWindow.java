@@ -0,0 +1,28 @@
+public class FixedWindow implements CongestionControl {
+    /*
+     * No congestion control: the sender always fills WindowSize.
+     */
+
+    private final int window;
+
+    public FixedWindow(int window) {
+        this.window = window;
+    }
+
+    public void onAck(int acked, double rtt) {
+    }
+
+    public void onLoss() {
+    }
+
+    public void onTimeout() {
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public String getName() {
+        return "none";
+    }
+}
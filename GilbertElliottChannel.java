@@ -0,0 +1,106 @@
+import java.util.function.DoubleSupplier;
+
+public class GilbertElliottChannel
+{
+    // Bursty loss and corruption: a two-state Markov chain, stepped once
+    // per packet sent, moves from the good to the bad state with
+    // probability p and back with probability r.  Each state has its own
+    // loss and corruption probabilities.  In the long run the chain is
+    // bad a fraction p / (p + r) of the time, and bad periods last
+    // 1 / r packets on average.
+    private double p;
+    private double r;
+    private double lossGood;
+    private double lossBad;
+    private double corruptGood;
+    private double corruptBad;
+    private boolean bad;
+    private DoubleSupplier random;
+
+    public GilbertElliottChannel(double p, double r,
+                                 double lossGood, double lossBad,
+                                 double corruptGood, double corruptBad,
+                                 DoubleSupplier random)
+    {
+        this.p = p;
+        this.r = r;
+        this.lossGood = lossGood;
+        this.lossBad = lossBad;
+        this.corruptGood = corruptGood;
+        this.corruptBad = corruptBad;
+        this.random = random;
+        bad = false;
+    }
+
+    // A channel with the same average loss and corruption as the i.i.d.
+    // probabilities given, where only the bad state damages packets and
+    // its bad periods average burst packets.  As in the i.i.d. channel,
+    // corruption is counted among the packets that were not lost.  The
+    // bad state is made long enough that it loses, and corrupts, no
+    // more than about half its packets
+    public static GilbertElliottChannel matching(double loss, double corrupt,
+                                                 double burst,
+                                                 DoubleSupplier random)
+    {
+        double r = 1 / Math.max(1, burst);
+        double badFraction = Math.min(0.9, Math.max(2 * loss,
+                                                    loss + 2 * corrupt * (1 - loss)));
+        if (badFraction <= loss)
+        {
+            return new GilbertElliottChannel(0, r, loss, loss, corrupt, corrupt, random);
+        }
+
+        double p = r * badFraction / (1 - badFraction);
+        return new GilbertElliottChannel(p, r,
+                                         0, Math.min(1, loss / badFraction),
+                                         0, Math.min(1, corrupt * (1 - loss) /
+                                                        (badFraction - loss)),
+                                         random);
+    }
+
+    // Move the chain on by one packet
+    public void next()
+    {
+        if (random.getAsDouble() < (bad ? r : p))
+        {
+            bad = !bad;
+        }
+    }
+
+    public boolean isBad()
+    {
+        return bad;
+    }
+
+    // Loss and corruption probabilities in the current state
+    public double getLossProb()
+    {
+        return bad ? lossBad : lossGood;
+    }
+
+    public double getCorruptProb()
+    {
+        return bad ? corruptBad : corruptGood;
+    }
+
+    // Long-run averages, for comparing with an i.i.d. channel.  The
+    // corruption average is over the packets that were not lost
+    public double getAverageLossProb()
+    {
+        double badFraction = (p + r > 0) ? p / (p + r) : 0;
+        return badFraction * lossBad + (1 - badFraction) * lossGood;
+    }
+
+    public double getAverageCorruptProb()
+    {
+        double badFraction = (p + r > 0) ? p / (p + r) : 0;
+        double kept = 1 - getAverageLossProb();
+        if (kept <= 0)
+        {
+            return 0;
+        }
+
+        return (badFraction * (1 - lossBad) * corruptBad +
+                (1 - badFraction) * (1 - lossGood) * corruptGood) / kept;
+    }
+}
@@ -0,0 +1,193 @@
+public class HeapEventListImpl implements EventList
+{
+    // Binary min-heap ordered by (time, insertion order).  Breaking ties
+    // on insertion order keeps the event sequence identical to the
+    // linear-scan EventListImpl, so a given seed replays the same run.
+    private Event[] heap;
+    private long[] order;
+    private int size;
+    private long nextOrder;
+
+    public HeapEventListImpl()
+    {
+        heap = new Event[64];
+        order = new long[64];
+        size = 0;
+        nextOrder = 0;
+    }
+
+    public boolean add(Event e)
+    {
+        if (size == heap.length)
+        {
+            grow();
+        }
+
+        heap[size] = e;
+        order[size] = nextOrder++;
+        siftUp(size++);
+        return true;
+    }
+
+    public Event removeNext()
+    {
+        if (size == 0)
+        {
+            return null;
+        }
+
+        return removeAt(0);
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append(heap[i]);
+        }
+        return sb.append("]").toString();
+    }
+
+    public Event removeTimer(int entity)
+    {
+        // Remove the oldest pending timer for this entity, as the
+        // vector implementation does
+        int timerIndex = -1;
+        for (int i = 0; i < size; i++)
+        {
+            if ((heap[i].getType() == NetworkSimulator.TIMERINTERRUPT) &&
+                (heap[i].getEntity() == entity) &&
+                ((timerIndex == -1) || (order[i] < order[timerIndex])))
+            {
+                timerIndex = i;
+            }
+        }
+
+        if (timerIndex == -1)
+        {
+            return null;
+        }
+
+        return removeAt(timerIndex);
+    }
+
+    public double getLastPacketTime(int entityTo)
+    {
+        // The most recently added arrival for this entity
+        double time = 0;
+        long latest = -1;
+        for (int i = 0; i < size; i++)
+        {
+            if ((heap[i].getType() == NetworkSimulator.FROMLAYER3) &&
+                (heap[i].getEntity() == entityTo) &&
+                (order[i] > latest))
+            {
+                time = heap[i].getTime();
+                latest = order[i];
+            }
+        }
+
+        return time;
+    }
+
+    private Event removeAt(int i)
+    {
+        Event removed = heap[i];
+        size--;
+
+        if (i != size)
+        {
+            heap[i] = heap[size];
+            order[i] = order[size];
+            heap[size] = null;
+
+            if (i > 0 && before(i, (i - 1) / 2))
+            {
+                siftUp(i);
+            }
+            else
+            {
+                siftDown(i);
+            }
+        }
+        else
+        {
+            heap[size] = null;
+        }
+
+        return removed;
+    }
+
+    private boolean before(int i, int j)
+    {
+        double ti = heap[i].getTime();
+        double tj = heap[j].getTime();
+        return (ti < tj) || ((ti == tj) && (order[i] < order[j]));
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0)
+        {
+            int parent = (i - 1) / 2;
+            if (!before(i, parent))
+            {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true)
+        {
+            int left = 2 * i + 1;
+            if (left >= size)
+            {
+                break;
+            }
+
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && before(right, left))
+            {
+                smallest = right;
+            }
+
+            if (!before(smallest, i))
+            {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        Event e = heap[i];
+        heap[i] = heap[j];
+        heap[j] = e;
+
+        long o = order[i];
+        order[i] = order[j];
+        order[j] = o;
+    }
+
+    private void grow()
+    {
+        Event[] newHeap = new Event[heap.length * 2];
+        long[] newOrder = new long[order.length * 2];
+        System.arraycopy(heap, 0, newHeap, 0, size);
+        System.arraycopy(order, 0, newOrder, 0, size);
+        heap = newHeap;
+        order = newOrder;
+    }
+}
@@ -0,0 +1,38 @@
+public class InternetChecksum implements PacketIntegrity {
+    /*
+     * RFC 1071 one's-complement sum of 16-bit words. Each int field is
+     * taken as two words and an odd trailing payload byte is padded with
+     * zero. End-around carries make every bit position count, so unlike
+     * the additive sum it catches most single-field errors that happen to
+     * be multiples of 65536.
+     */
+
+    public int checksum(Packet packet) {
+        long sum = words(packet.getSeqnum()) + words(packet.getAcknum());
+        byte[] payload = packet.payloadBytes();
+        if (payload != null) {
+            int i = 0;
+            for (int end = payload.length & ~1; i < end; i += 2) {
+                sum += ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            }
+            if (i < payload.length) {
+                sum += (payload[i] & 0xFF) << 8;
+            }
+        }
+        for (int i = 0; i < packet.getSackBlockCount(); i++) {
+            sum += words(packet.getSackLeft(i)) + words(packet.getSackRight(i));
+        }
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) (~sum & 0xFFFF);
+    }
+
+    private static long words(int n) {
+        return (n >>> 16) + (n & 0xFFFF);
+    }
+
+    public String getName() {
+        return "internet";
+    }
+}
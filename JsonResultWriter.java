@@ -0,0 +1,50 @@
+import java.io.*;
+
+public class JsonResultWriter implements ResultWriter
+{
+    // One JSON object per line (JSON Lines), keyed by
+    // SimulationResult.FIELDS, so the file can be appended to and read
+    // back a run at a time.  Non-finite numbers are written as null.
+    private Writer out;
+
+    public JsonResultWriter(File file) throws IOException
+    {
+        out = new BufferedWriter(new FileWriter(file, true));
+    }
+
+    public synchronized void write(SimulationResult result) throws IOException
+    {
+        Object[] values = result.toArray();
+        out.write('{');
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+            {
+                out.write(',');
+            }
+            out.write('"' + SimulationResult.FIELDS[i] + "\":");
+            out.write(value(values[i]));
+        }
+        out.write("}\n");
+    }
+
+    public synchronized void close() throws IOException
+    {
+        out.close();
+    }
+
+    private static String value(Object value)
+    {
+        if (value instanceof String)
+        {
+            return "\"" + ((String)value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+
+        if ((value instanceof Double) && !Double.isFinite((Double)value))
+        {
+            return "null";
+        }
+
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,13 @@
+public interface Link
+{
+    // One direction of the channel between layer 3 and the far end.
+    // send() is called once per packet that survived the random loss,
+    // in time order, and returns when the packet arrives at the far end,
+    // or a negative value if the link drops it.
+    public double send(double now, int bytes);
+
+    // Packets dropped by the link itself so far
+    public int getDrops();
+
+    public String getName();
+}
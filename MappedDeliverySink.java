@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class MappedDeliverySink extends FileDeliverySink
+{
+    // Writes the lines into a memory-mapped window of each file and maps
+    // the next window when one fills, leaving the copying to disk to the
+    // operating system.  The file is cut back to what was written when
+    // the sink is closed.  Windows refuses to resize a file while any
+    // part of it is still mapped, and a mapping is only released when
+    // the buffer is collected, so there the written part is copied to a
+    // new file that then replaces the original; should even that be
+    // refused, close() fails naming the copy.  -Ddelivery=channel avoids
+    // all this on Windows.
+    public static final int DEFAULT_WINDOW = 4 << 20;
+
+    private int window;
+    private File[] files = new File[3];
+    private FileChannel[] channels = new FileChannel[3];
+    private MappedByteBuffer[] buffers = new MappedByteBuffer[3];
+    private long[] mappedAt = new long[3];  // file offset of each window
+
+    public MappedDeliverySink(File directory) throws IOException
+    {
+        this(directory, DEFAULT_WINDOW);
+    }
+
+    public MappedDeliverySink(File directory, int window) throws IOException
+    {
+        super(directory);
+        this.window = Math.max(window, 4096);
+        openDefault();
+    }
+
+    protected void open(int output, File file) throws IOException
+    {
+        channels[output] = FileChannel.open(file.toPath(),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+        files[output] = file;
+        mappedAt[output] = 0;
+        buffers[output] = channels[output].map(FileChannel.MapMode.READ_WRITE,
+                                               0, window);
+    }
+
+    protected ByteBuffer buffer(int output, int needed) throws IOException
+    {
+        MappedByteBuffer buffer = buffers[output];
+        if (buffer.remaining() < needed)
+        {
+            mappedAt[output] += buffer.position();
+            buffer = channels[output].map(FileChannel.MapMode.READ_WRITE,
+                                          mappedAt[output],
+                                          Math.max(window, needed));
+            buffers[output] = buffer;
+        }
+
+        return buffer;
+    }
+
+    protected void close(int output) throws IOException
+    {
+        long length = mappedAt[output] + buffers[output].position();
+        buffers[output] = null;
+        FileChannel channel = channels[output];
+        channels[output] = null;
+        try
+        {
+            channel.truncate(length);
+        }
+        catch (IOException e)
+        {
+            copyPrefix(channel, files[output], length, e);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /* Replace file with its first length bytes, for when it cannot be
+       truncated in place */
+    private static void copyPrefix(FileChannel channel, File file, long length,
+                                   IOException cause) throws IOException
+    {
+        File copy = new File(file.getPath() + ".part");
+        try (FileChannel out = FileChannel.open(copy.toPath(),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long done = 0;
+            while (done < length)
+            {
+                done += channel.transferTo(done, length - done, out);
+            }
+        }
+
+        try
+        {
+            Files.move(copy.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            IOException failure = new IOException("cannot truncate " + file +
+                                                  ", its output is in " + copy, cause);
+            failure.addSuppressed(e);
+            throw failure;
+        }
+    }
+
+    public String getName()
+    {
+        return "mmap";
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MemoryDeliverySink implements DeliverySink
+{
+    // Keeps every delivery in memory, by entity, for callers that want
+    // to inspect what arrived without going through a file
+    private List<List<String>> delivered = new ArrayList<List<String>>();
+
+    public void deliver(int entity, String data)
+    {
+        while (delivered.size() <= entity)
+        {
+            delivered.add(new ArrayList<String>());
+        }
+        delivered.get(entity).add(data);
+    }
+
+    public void close()
+    {
+    }
+
+    // The messages delivered at entity, in order
+    public List<String> getDelivered(int entity)
+    {
+        if (entity >= delivered.size())
+        {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(delivered.get(entity));
+    }
+
+    public String getName()
+    {
+        return "memory";
+    }
+}
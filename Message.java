@@ -1,43 +1,105 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public class Message
 {
-    private String data;
-    
+    // The data is held as Latin-1 bytes; the array is replaced, never
+    // modified in place, so it can be shared with the packets built from it
+    private byte[] data;
+    private String dataString;  // built on first getData()
+
     public Message(String inputData)
     {
         if (inputData == null)
         {
-            data = "";
+            data = new byte[0];
         }
         else if (inputData.length() > NetworkSimulator.MAXDATASIZE)
         {
-            data = "";
+            data = new byte[0];
         }
         else
         {
-            data = new String(inputData);
+            data = inputData.getBytes(StandardCharsets.ISO_8859_1);
+            dataString = inputData;
         }
     }
-           
+
+    public Message(byte[] inputData)
+    {
+        if (inputData == null)
+        {
+            data = new byte[0];
+        }
+        else if (inputData.length > NetworkSimulator.MAXDATASIZE)
+        {
+            data = new byte[0];
+        }
+        else
+        {
+            data = inputData.clone();
+        }
+    }
+
+    // The first length bytes of inputData
+    public Message(byte[] inputData, int length)
+    {
+        if ((inputData == null) || (length < 0) ||
+            (length > Math.min(inputData.length, NetworkSimulator.MAXDATASIZE)))
+        {
+            data = new byte[0];
+        }
+        else
+        {
+            data = Arrays.copyOf(inputData, length);
+        }
+    }
+
     public boolean setData(String inputData)
     {
         if (inputData == null)
         {
-            data = "";
+            data = new byte[0];
+            dataString = null;
             return false;
         }
         else if (inputData.length() > NetworkSimulator.MAXDATASIZE)
         {
-            data = "";
+            data = new byte[0];
+            dataString = null;
             return false;
         }
         else
         {
-            data = new String(inputData);
+            data = inputData.getBytes(StandardCharsets.ISO_8859_1);
+            dataString = inputData;
             return true;
         }
     }
-    
+
+    // String view of the data, kept for existing callers
     public String getData()
+    {
+        if (dataString == null)
+        {
+            dataString = new String(data, StandardCharsets.ISO_8859_1);
+        }
+        return dataString;
+    }
+
+    public int getDataLength()
+    {
+        return data.length;
+    }
+
+    public ByteBuffer getDataBuffer()
+    {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    // The data array itself, for code in this package that only reads it
+    byte[] dataBytes()
     {
         return data;
     }
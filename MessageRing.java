@@ -0,0 +1,53 @@
+public class MessageRing {
+    /*
+     * Bounded FIFO of messages waiting for room in the sender window,
+     * kept in a fixed circular array. offer() refuses a message when the
+     * ring is full rather than growing it; the simulator checks
+     * remaining() before handing A a message, so a full ring pauses the
+     * layer-5 source instead of losing data.
+     */
+
+    private final Message[] slots;
+    private int head;
+    private int size;
+
+    public MessageRing(int capacity) {
+        slots = new Message[capacity];
+    }
+
+    public boolean offer(Message message) {
+        if (size == slots.length) return false;
+        slots[(head + size) % slots.length] = message;
+        size++;
+        return true;
+    }
+
+    public Message peek() {
+        return (size == 0) ? null : slots[head];
+    }
+
+    public Message poll() {
+        if (size == 0) return null;
+        Message message = slots[head];
+        slots[head] = null;
+        head = (head + 1) % slots.length;
+        size--;
+        return message;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public int remaining() {
+        return slots.length - size;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
 import java.util.Vector;
 import java.util.Enumeration;
 import java.io.*;
@@ -13,21 +15,83 @@ public abstract class NetworkSimulator
     public static final int FROMLAYER5 = 1;
     public static final int FROMLAYER3 = 2;
     
-    // These constants represent our sender and receiver 
+    // These constants represent our sender and receiver.  With
+    // -Dflows=N there are N such pairs sharing one link: entities 2i and
+    // 2i+1 are the two ends of pair i, and pair 0 is A and B
     public static final int A = 0;
     public static final int B = 1;
 
     private int maxMessages;
+    private int seed;
     private double lossProb;
     private double corruptProb;
     private double avgMessageDelay;
     protected int traceLevel;
     private EventList eventList;
-    private FileWriter outFile;
+    
+    // Where the trace and statistics are printed, System.out unless the
+    // simulator was built with its own stream.  Built with a null stream
+    // the simulator is quiet: it prints nothing and runSimulator() only
+    // returns the result
+    protected PrintStream out;
+    private boolean quiet;
+    
+    // Where layer 5 puts the deliveries.  Unless a sink is given, one is
+    // made when the run starts: -Ddelivery=channel|mmap|writer writes
+    // the legacy files in outputDirectory, memory keeps them and none
+    // drops them, as does a null outputDirectory
+    private DeliverySink sink;
+    private File outputDirectory;
+    
+    // With -Dverify=true every delivery is checked against the messages
+    // generated, as it happens.  Null otherwise
+    private DeliveryVerifier verifier;
+    
+    // -Dtracefile=name records every event in a binary trace, whatever
+    // the trace level; TraceDecoder prints it as text.  A relative name
+    // is taken within outputDirectory, and there is no trace when that
+    // is null.  Null otherwise
+    private TraceWriter binaryTrace;
+    private TimerHandle[][] entityTimer;  // [entity][tag]
+    private int numEntities;
+    
+    // Arrival time of the last packet scheduled on each direction of the
+    // link (towards the odd and towards the even entities), and how many
+    // scheduled arrivals have not been delivered yet
+    private double[] lastArrivalTime;
+    private int[] pendingArrivals;
+    
+    // With -Dlink=bottleneck each direction is a BottleneckLink instead:
+    // -Dbandwidth bytes per time unit, -Dpropagation delay, a buffer of
+    // -Dqueue packets and -Dqueuepolicy=droptail|red.  Null otherwise
+    private Link[] links;
+    
+    // -Dchannel=ge makes losses and corruption bursty in both directions,
+    // and -Dchannel=ge,iid (or iid,ge) in one; the first names the
+    // direction towards B.  Null entries are the i.i.d. channel
+    private GilbertElliottChannel[] channels;
+    
+    // Set while an entity has no room for another message; its layer-5
+    // source then stops generating until the protocol calls resumeLayer5()
+    private boolean[] layer5Paused;
+    private double[] pausedSince;
+    private double[] pausedTime;
+    
+    // Every even entity has a layer-5 source.  With -Dduplex=true the
+    // odd ones have one too, sending as many messages at the same
+    // average rate
+    private boolean duplex;
+    private int[] nSim;  // messages generated by each entity's source
+    
+    // What drives each source (-Dtraffic=uniform|poisson|pareto|trace),
+    // by entity.  -Dmsgsize=uniform draws message sizes from 1 to
+    // MAXDATASIZE instead of always sending full messages
+    private TrafficSource[] sources;
+    private TraceSource trafficTrace;  // the parsed -Dtrafficfile, if used
+    private int activeSources;
 
     private OSIRandom rand;
 
-    private int nSim;
     private int nToLayer3;
     private int nLost;
     private int nCorrupt;
@@ -39,9 +103,12 @@ public abstract class NetworkSimulator
     protected abstract void aTimerInterrupt();
     protected abstract void aInit();
 
+    protected abstract void bOutput(Message message);
     protected abstract void bInput(Packet packet);
+    protected abstract void bTimerInterrupt();
     protected abstract void bInit();
     protected abstract void Simulation_done();
+    protected abstract SimulationResult getResult();
     
     public NetworkSimulator(int numMessages,
                             double loss,
@@ -50,35 +117,312 @@ public abstract class NetworkSimulator
                             int trace,
                             int seed)
     {
+        this(numMessages, loss, corrupt, avgDelay, trace, seed, System.out);
+    }
+    
+    public NetworkSimulator(int numMessages,
+                            double loss,
+                            double corrupt,
+                            double avgDelay,
+                            int trace,
+                            int seed,
+                            PrintStream out)
+    {
+        quiet = (out == null);
+        this.out = quiet ? new PrintStream(OutputStream.nullOutputStream()) : out;
+        outputDirectory = new File(".");
         maxMessages = numMessages;
         lossProb = loss;
         corruptProb = corrupt;
         avgMessageDelay = avgDelay;
         traceLevel = trace;
-        eventList = new EventListImpl();
+        eventList = createEventList(System.getProperty("eventlist", "heap"));
+        this.seed = seed;
         rand = new OSIRandom(seed);
-	try{
-	    outFile = new FileWriter("OutputFile");
-	}catch (Exception e) {e.printStackTrace();}
+        numEntities = 2 * Math.max(1, Integer.getInteger("flows", 1));
+        entityTimer = new TimerHandle[numEntities][2];
+        layer5Paused = new boolean[numEntities];
+        pausedSince = new double[numEntities];
+        pausedTime = new double[numEntities];
+        duplex = Boolean.getBoolean("duplex");
+        verifier = Boolean.getBoolean("verify") ? new DeliveryVerifier(numEntities) : null;
+        lastArrivalTime = new double[2];
+        pendingArrivals = new int[2];
+        links = createLinks(System.getProperty("link", "legacy"));
+        channels = createChannels(System.getProperty("channel", "iid"));
 
-        nSim = 0;
+        nSim = new int[numEntities];
+        sources = new TrafficSource[numEntities];
         nToLayer3 = 0;
         nLost = 0;
         nCorrupt = 0;
         time = 0;
     }
     
-    public void runSimulator()
+    /* One Link per direction for "bottleneck", or null for the legacy
+       channel */
+    private Link[] createLinks(String kind)
+    {
+        if (!kind.equals("bottleneck"))
+        {
+            if (!kind.equals("legacy"))
+            {
+                out.println("Unknown link \"" + kind +
+                                   "\", using legacy");
+            }
+            
+            return null;
+        }
+        
+        double bandwidth = Double.parseDouble(System.getProperty("bandwidth", "8"));
+        double propagation = Double.parseDouble(System.getProperty("propagation", "1"));
+        int queue = Integer.getInteger("queue", 20);
+        String policy = System.getProperty("queuepolicy", "droptail");
+        
+        Link[] result = new Link[2];
+        for (int i = 0; i < 2; i++)
+        {
+            BottleneckLink link = new BottleneckLink(bandwidth, propagation, queue);
+            if (policy.equals("red"))
+            {
+                link.useRed(Double.parseDouble(System.getProperty("redmin", String.valueOf(queue / 4.0))),
+                            Double.parseDouble(System.getProperty("redmax", String.valueOf(queue * 3 / 4.0))),
+                            Double.parseDouble(System.getProperty("redmaxp", "0.1")),
+                            () -> rand.nextDouble(5));
+            }
+            else if (!policy.equals("droptail"))
+            {
+                out.println("Unknown queue policy \"" + policy +
+                                   "\", using droptail");
+            }
+            result[i] = link;
+        }
+        
+        return result;
+    }
+    
+    /* The loss model of each direction.  A Gilbert-Elliott channel
+       averages the loss and corruption probabilities entered unless
+       -Dgep is set, in which case -Dgep, -Dger, -Dgelossgood,
+       -Dgelossbad, -Dgecorruptgood and -Dgecorruptbad give it
+       explicitly.  Bad periods average -Dgeburst packets */
+    private GilbertElliottChannel[] createChannels(String kinds)
+    {
+        String[] kind = kinds.split(",");
+        GilbertElliottChannel[] result = new GilbertElliottChannel[2];
+        boolean any = false;
+        
+        // Direction 1 is towards the odd entities, B among them
+        for (int i = 0; i < 2; i++)
+        {
+            String k = kind[Math.min(i, kind.length - 1)].trim();
+            if (!k.equals("ge"))
+            {
+                if (!k.equals("iid"))
+                {
+                    out.println("Unknown channel \"" + k +
+                                       "\", using iid");
+                }
+                continue;
+            }
+            
+            double burst = Double.parseDouble(System.getProperty("geburst", "4"));
+            DoubleSupplier transitions = () -> rand.nextDouble(7);
+            GilbertElliottChannel channel;
+            if (System.getProperty("gep") != null)
+            {
+                channel = new GilbertElliottChannel(
+                    Double.parseDouble(System.getProperty("gep")),
+                    Double.parseDouble(System.getProperty("ger", String.valueOf(1 / burst))),
+                    Double.parseDouble(System.getProperty("gelossgood", "0")),
+                    Double.parseDouble(System.getProperty("gelossbad", "0.5")),
+                    Double.parseDouble(System.getProperty("gecorruptgood", "0")),
+                    Double.parseDouble(System.getProperty("gecorruptbad", "0.5")),
+                    transitions);
+            }
+            else
+            {
+                channel = GilbertElliottChannel.matching(lossProb, corruptProb,
+                                                         burst, transitions);
+            }
+            
+            result[1 - i] = channel;
+            any = true;
+            out.printf("Channel towards %s: Gilbert-Elliott, average loss %.4f, " +
+                              "corruption %.4f\n", (i == 0) ? "B" : "A",
+                              channel.getAverageLossProb(),
+                              channel.getAverageCorruptProb());
+        }
+        
+        return any ? result : null;
+    }
+    
+    /* Write the deliveries to OutputFile and its siblings in directory,
+       and the -Dtracefile trace there too, or nowhere if it is null.
+       Takes effect when the simulation starts, so runs in separate
+       directories do not clobber each other */
+    public void setOutputDirectory(File directory)
+    {
+        outputDirectory = directory;
+    }
+    
+    /* Hand the deliveries to sink instead of the -Ddelivery one */
+    public void setDeliverySink(DeliverySink sink)
+    {
+        this.sink = sink;
+    }
+    
+    public DeliverySink getDeliverySink()
+    {
+        return sink;
+    }
+    
+    private DeliverySink createDeliverySink(String kind)
+    {
+        if (kind.equals("none") || (outputDirectory == null))
+        {
+            return new NullDeliverySink();
+        }
+        else if (kind.equals("memory"))
+        {
+            return new MemoryDeliverySink();
+        }
+        
+        try
+        {
+            if (kind.equals("mmap"))
+            {
+                return new MappedDeliverySink(outputDirectory);
+            }
+            else if (kind.equals("writer"))
+            {
+                return new WriterDeliverySink(outputDirectory);
+            }
+            else if (!kind.equals("channel"))
+            {
+                out.println("Unknown delivery sink \"" + kind +
+                                   "\", using channel");
+            }
+            
+            return new ChannelDeliverySink(outputDirectory);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return new NullDeliverySink();
+        }
+    }
+    
+    /* The verifier's findings, after the statistics */
+    private void printDeliveryCheck()
+    {
+        if (verifier == null)
+        {
+            return;
+        }
+        
+        out.printf("Delivery check: %d in order, %d gaps, %d reordered, " +
+                   "%d duplicates, %d corrupt, %d undelivered, hash %016x\n",
+                   verifier.getInOrder(), verifier.getGaps(),
+                   verifier.getReordered(), verifier.getDuplicates(),
+                   verifier.getCorrupt(), verifier.getUndelivered(),
+                   verifier.getHash());
+        if (verifier.getFirstViolation() != null)
+        {
+            out.printf("First violation: %s, time %.4f\n",
+                       verifier.getFirstViolation(),
+                       verifier.getFirstViolationTime());
+        }
+    }
+    
+    public DeliveryVerifier getDeliveryVerifier()
+    {
+        return verifier;
+    }
+    
+    /* A result holding what the simulator itself knows: the run's
+       parameters, what the channel did and the time taken.  The
+       protocol's counters are for the subclass to add */
+    protected SimulationResult.Builder newResult()
+    {
+        return new SimulationResult.Builder()
+            .messages(maxMessages)
+            .loss(lossProb)
+            .corrupt(corruptProb)
+            .avgDelay(avgMessageDelay)
+            .seed(seed)
+            .flows(numEntities / 2)
+            .channelPackets(nToLayer3)
+            .channelLost(nLost)
+            .channelCorrupted(nCorrupt)
+            .queueDrops(getQueueDrops())
+            .totalTime(time)
+            .pausedTime(getLayer5PausedTime(A))
+            .violations((verifier != null) ? verifier.getViolations() : -1);
+    }
+    
+    /* Packets the bottleneck links have dropped from their queues */
+    protected int getQueueDrops()
+    {
+        if (links == null)
+        {
+            return 0;
+        }
+        
+        return links[0].getDrops() + links[1].getDrops();
+    }
+    
+    /* Pick the event list implementation, "heap" or "vector" */
+    private EventList createEventList(String kind)
+    {
+        if (kind.equals("vector"))
+        {
+            return new EventListImpl();
+        }
+        else if (!kind.equals("heap"))
+        {
+            out.println("Unknown event list \"" + kind +
+                               "\", using heap");
+        }
+        
+        return new HeapEventListImpl();
+    }
+    
+    public SimulationResult runSimulator()
     {
         Event next;
+        byte[] nextMessage = new byte[MAXDATASIZE];
+        
+        if (sink == null)
+        {
+            sink = createDeliverySink(System.getProperty("delivery", "channel"));
+        }
+        
+        if ((System.getProperty("tracefile") != null) && (outputDirectory != null))
+        {
+            try{
+                binaryTrace = new TraceWriter(outputDirectory.toPath()
+                    .resolve(System.getProperty("tracefile")).toFile());
+            }catch (Exception e) {e.printStackTrace();}
+        }
         
         // Perform any student-required initialization
-        aInit();
-        bInit();
+        for (int entity = 0; entity < numEntities; entity++)
+        {
+            init(entity);
+        }
         
         // Start the whole thing off by scheduling some data arrival
         // from layer 5
-        generateNextArrival();
+        for (int entity = 0; entity < numEntities; entity++)
+        {
+            if ((entity % 2 == 0) || duplex)
+            {
+                sources[entity] = createTrafficSource(System.getProperty("traffic", "uniform"));
+                activeSources++;
+                generateNextArrival(entity);
+            }
+        }
         
         // Begin the main loop
         while (true)
@@ -90,111 +434,256 @@ public abstract class NetworkSimulator
                 break;
             }
             
+            // Cancelled timers are dropped here rather than searched for
+            // in the event list when they are stopped
+            if ((next.getTimer() != null) && !next.getTimer().cancel())
+            {
+                continue;
+            }
+            
             if (traceLevel >= 2)
             {
-                System.out.println();
-                System.out.print("EVENT time: " + next.getTime());
-                System.out.print("  type: " + next.getType());
-                System.out.println("  entity: " + next.getEntity());
+                out.println();
+                out.print("EVENT time: " + next.getTime());
+                out.print("  type: " + next.getType());
+                out.println("  entity: " + next.getEntity());
             }
             
             // Advance the simulator's time
             time = next.getTime();
             
+            if (binaryTrace != null)
+            {
+                binaryTrace.event(TraceWriter.EVENT, time, next.getEntity(),
+                                  next.getType());
+            }
+            
             // Perform the appropriate action based on the event 
             switch (next.getType())
             {
                 case TIMERINTERRUPT:
-                    if (next.getEntity() == A)
-                    {
-                        aTimerInterrupt();
-                    }
-                    else
-                    {
-                        System.out.println("INTERNAL PANIC: Timeout for " +
-                                           "invalid entity");
-                    }
+                    timerInterrupt(next.getTimer());
                     break;
                     
                 case FROMLAYER3:
-                    if (next.getEntity() == A)
+                    if ((next.getEntity() >= 0) &&
+                        (next.getEntity() < numEntities))
                     {
-                        aInput(next.getPacket());
-                    }
-                    else if (next.getEntity() == B)
-                    {
-                        bInput(next.getPacket());
+                        pendingArrivals[next.getEntity() % 2]--;
+                        if (binaryTrace != null)
+                        {
+                            binaryTrace.packet(TraceWriter.ARRIVE, time,
+                                               next.getEntity(),
+                                               next.getPacket(), 0);
+                        }
+                        input(next.getEntity(), next.getPacket());
                     }
                     else
                     {
-                        System.out.println("INTERNAL PANIC: Packet has " +
+                        out.println("INTERNAL PANIC: Packet has " +
                                            "arrived for unknown entity");
                     }
                     
                     break;
                     
                 case FROMLAYER5:
-                    
-                    // If a message has arrived from layer 5, we need to
-                    // schedule the arrival of the next message
-                    generateNextArrival();
-                    
-                    char[] nextMessage = new char[MAXDATASIZE];
-                    
-                    // Now, let's generate the contents of this message
-                    char j = (char)((nSim % 26) + 97);
-                    for (int i = 0; i < MAXDATASIZE; i++)
-                    {
-                        nextMessage[i] = j;
-                    }
-                    
-                    // Increment the message counter
-                    nSim++;
-
-                    // If we've reached the maximum message count, exit the main loop
-                    if (nSim == maxMessages+1)
-                    break;
-                    
-                    // Let the student handle the new message
-                    aOutput(new Message(new String(nextMessage)));
+                    layer5Arrival(next.getEntity(), nextMessage);
                     break;
                     
                 default:
-                    System.out.println("INTERNAL PANIC: Unknown event type");
+                    out.println("INTERNAL PANIC: Unknown event type");
             }
 
-            if (nSim == maxMessages+1)
+            // Once every source has sent its messages, exit the main loop
+            if (activeSources == 0)
             break;
         }
 
-        System.out.println("Simulator terminated at time "+getTime());
-        Simulation_done();
+        if (!quiet)
+        {
+            out.println("Simulator terminated at time "+getTime());
+            Simulation_done();
+            printDeliveryCheck();
+        }
+        SimulationResult result = getResult();
 
         try{
-            outFile.flush();
-            outFile.close();
+            sink.close();
+            if (binaryTrace != null)
+            {
+                binaryTrace.close();
+            }
         } catch (Exception e) {e.printStackTrace();}
+        
+        return result;
+    }
+    
+    /* A message from an entity's layer 5.  Messages from the odd
+       entities (duplex mode only) are upper case so the two directions
+       can be told apart */
+    private void layer5Arrival(int entity, byte[] nextMessage)
+    {
+        // In duplex mode one source may outlast another
+        if (nSim[entity] == maxMessages+1)
+        {
+            return;
+        }
+        
+        // If the entity cannot take the message, pause the source; the
+        // arrival is replayed when it makes room
+        if (freeCapacity(entity) <= 0)
+        {
+            pauseLayer5(entity);
+            return;
+        }
+        
+        // If a message has arrived from layer 5, we need to
+        // schedule the arrival of the next message
+        generateNextArrival(entity);
+        
+        // Now, let's generate the contents of this message
+        Arrays.fill(nextMessage,
+                    (byte)((nSim[entity] % 26) + ((entity % 2 == 0) ? 97 : 65)));
+        
+        // Increment the message counter
+        nSim[entity]++;
+        
+        // If we've reached the maximum message count, this source is done
+        if (nSim[entity] == maxMessages+1)
+        {
+            activeSources--;
+            return;
+        }
+        
+        // Let the student handle the new message
+        int size = sources[entity].nextSize();
+        if (verifier != null)
+        {
+            verifier.generated(entity, nextMessage, size);
+        }
+        if (binaryTrace != null)
+        {
+            binaryTrace.message(TraceWriter.GENERATE, time, entity,
+                                nextMessage, size);
+        }
+        output(entity, new Message(nextMessage, size));
+    }
+    
+    /* A source for one entity.  All sources draw their intervals from
+       the one arrival stream, as the original source did */
+    private TrafficSource createTrafficSource(String kind)
+    {
+        DoubleSupplier arrivals = () -> rand.nextDouble(0);
+        DoubleSupplier sizes = null;
+        if (System.getProperty("msgsize", "fixed").equals("uniform"))
+        {
+            sizes = () -> rand.nextDouble(6);
+        }
+        
+        if (kind.equals("poisson"))
+        {
+            return new PoissonSource(avgMessageDelay, arrivals, sizes);
+        }
+        else if (kind.equals("pareto"))
+        {
+            return new ParetoOnOffSource(avgMessageDelay,
+                                         Double.parseDouble(System.getProperty("burstlength", "10")),
+                                         Double.parseDouble(System.getProperty("peakratio", "5")),
+                                         Double.parseDouble(System.getProperty("paretoshape", "1.5")),
+                                         arrivals, sizes);
+        }
+        else if (kind.equals("trace"))
+        {
+            if (trafficTrace == null)
+            {
+                trafficTrace = TraceSource.load(System.getProperty("trafficfile", "traffic.txt"), out);
+            }
+            if (trafficTrace != null)
+            {
+                return trafficTrace.copy();
+            }
+            
+            out.println("Using uniform traffic instead");
+        }
+        else if (!kind.equals("uniform"))
+        {
+            out.println("Unknown traffic \"" + kind +
+                               "\", using uniform");
+        }
+        
+        return new UniformSource(avgMessageDelay, arrivals, sizes);
+    }
+    
+    /* The per-entity hooks.  By default they call the A and B methods;
+       protocols that run more than one pair override them */
+    protected void init(int entity)
+    {
+        if (entity == A)
+        {
+            aInit();
+        }
+        else if (entity == B)
+        {
+            bInit();
+        }
+    }
+    
+    protected void output(int entity, Message message)
+    {
+        if (entity == A)
+        {
+            aOutput(message);
+        }
+        else if (entity == B)
+        {
+            bOutput(message);
+        }
+    }
+    
+    protected void input(int entity, Packet packet)
+    {
+        if (entity == A)
+        {
+            aInput(packet);
+        }
+        else if (entity == B)
+        {
+            bInput(packet);
+        }
+    }
+    
+    protected int freeCapacity(int entity)
+    {
+        if (entity == A)
+        {
+            return aFreeCapacity();
+        }
+        else if (entity == B)
+        {
+            return bFreeCapacity();
+        }
+        
+        return Integer.MAX_VALUE;
     }
     
     /* Generate the next arrival and add it to the event list */
-    private void generateNextArrival()
+    private void generateNextArrival(int entity)
     {
         if (traceLevel > 2)
         {
-            System.out.println("generateNextArrival(): called");
+            out.println("generateNextArrival(): called");
         }
         
-        // arrival time 'x' is uniform on [0, 2*avgMessageDelay]
-        // having mean of avgMessageDelay.  Should this be made
-        // into a Gaussian distribution? 
-        double x = 2 * avgMessageDelay * rand.nextDouble(0);
-        Event next = new Event(time + x, FROMLAYER5, A);
+        // The entity's traffic source picks the interval; by default
+        // it is uniform on [0, 2*avgMessageDelay]
+        double x = sources[entity].nextInterval();
+        Event next = new Event(time + x, FROMLAYER5, entity);
                 
         eventList.add(next);
         if (traceLevel > 2)
         {
-            System.out.println("generateNextArrival(): time is " + time);
-            System.out.println("generateNextArrival(): future time for " +
+            out.println("generateNextArrival(): time is " + time);
+            out.println("generateNextArrival(): future time for " +
                                "event " + next.getType() + " at entity " +
                                next.getEntity() + " will be " +
                                next.getTime());
@@ -202,148 +691,467 @@ public abstract class NetworkSimulator
         
     }
     
+    /* How many more messages A (or B) can accept from layer 5.
+       Protocols with a bounded send buffer override these; the source
+       pauses at 0 */
+    protected int aFreeCapacity()
+    {
+        return Integer.MAX_VALUE;
+    }
+    
+    protected int bFreeCapacity()
+    {
+        return Integer.MAX_VALUE;
+    }
+    
+    private void pauseLayer5(int entity)
+    {
+        layer5Paused[entity] = true;
+        pausedSince[entity] = time;
+        
+        if (traceLevel > 2)
+        {
+            out.println("pauseLayer5: entity " + entity +
+                               " is full, pausing layer 5 at " + time);
+        }
+    }
+    
+    /* Called by the protocol when an entity has room again.  A paused
+       source delivers its held-back message now and carries on from
+       here */
+    protected void resumeLayer5(int entity)
+    {
+        if (!layer5Paused[entity] || (freeCapacity(entity) <= 0))
+        {
+            return;
+        }
+        
+        layer5Paused[entity] = false;
+        pausedTime[entity] += time - pausedSince[entity];
+        eventList.add(new Event(time, FROMLAYER5, entity));
+        
+        if (traceLevel > 2)
+        {
+            out.println("resumeLayer5: resuming layer 5 at " + time);
+        }
+    }
+    
+    /* Total time an entity's layer-5 source has spent paused */
+    protected double getLayer5PausedTime(int entity)
+    {
+        if (layer5Paused[entity])
+        {
+            return pausedTime[entity] + (time - pausedSince[entity]);
+        }
+        
+        return pausedTime[entity];
+    }
+    
+    protected boolean isDuplex()
+    {
+        return duplex;
+    }
+    
+    protected int getNumEntities()
+    {
+        return numEntities;
+    }
+    
+    /* Dispatch an expired timer.  Protocols that schedule their own
+       timers with scheduleTimer() can override this to tell them apart */
+    protected void timerInterrupt(TimerHandle timer)
+    {
+        int entity = timer.getEntity();
+        
+        if ((entity >= 0) && (entity < numEntities))
+        {
+            TimerHandle[] timers = entityTimer[entity];
+            if ((timer.getTag() < timers.length) &&
+                (timer == timers[timer.getTag()]))
+            {
+                timers[timer.getTag()] = null;
+            }
+            
+            if (binaryTrace != null)
+            {
+                binaryTrace.event(TraceWriter.TIMEOUT, time, entity,
+                                  timer.getTag());
+            }
+            timerInterrupt(entity, timer.getTag());
+        }
+        else
+        {
+            out.println("INTERNAL PANIC: Timeout for " +
+                               "invalid entity");
+        }
+    }
+    
+    /* Schedule a timer that fires increment time units from now.  Any
+       number of timers may be running for an entity at once; the tag is
+       left for the protocol to identify the timer with */
+    protected TimerHandle scheduleTimer(int entity, double increment, int tag)
+    {
+        if (traceLevel > 2)
+        {
+            out.println("scheduleTimer: scheduling timer " + tag +
+                               " at " + time);
+        }
+        
+        return armTimer(entity, time + increment, tag);
+    }
+    
+    private TimerHandle armTimer(int entity, double expiry, int tag)
+    {
+        TimerHandle timer = new TimerHandle(entity, tag, expiry);
+        eventList.add(new Event(expiry, TIMERINTERRUPT, entity, timer));
+        return timer;
+    }
+    
+    /* Cancel a timer scheduled with scheduleTimer().  Returns false if it
+       had already fired or been cancelled */
+    protected boolean cancelTimer(TimerHandle timer)
+    {
+        return (timer != null) && timer.cancel();
+    }
+    
+    /* Cancel a timer, if still running, and schedule it again increment
+       time units from now */
+    protected TimerHandle restartTimer(TimerHandle timer, double increment)
+    {
+        cancelTimer(timer);
+        return scheduleTimer(timer.getEntity(), increment, timer.getTag());
+    }
+    
+    /* Dispatch an expired startTimer() timer.  Protocols that run more
+       than one timer per entity override this to tell them apart by tag */
+    protected void timerInterrupt(int entity, int tag)
+    {
+        if (entity == A)
+        {
+            aTimerInterrupt();
+        }
+        else if (entity == B)
+        {
+            bTimerInterrupt();
+        }
+    }
+    
+    /* The slot for an entity's timer with this tag */
+    private TimerHandle[] timerSlots(int entity, int tag)
+    {
+        if (tag >= entityTimer[entity].length)
+        {
+            entityTimer[entity] = Arrays.copyOf(entityTimer[entity],
+                                                Math.max(tag + 1,
+                                                         2 * entityTimer[entity].length));
+        }
+        
+        return entityTimer[entity];
+    }
+    
+    /* stopTimer() and startTimer() manage one timer per entity, with the
+       entity number as its tag.  The three-argument forms give an entity
+       one timer per tag instead */
     protected void stopTimer(int entity)
+    {
+        stopTimer(entity, entity);
+    }
+    
+    protected void stopTimer(int entity, int tag)
     {
         if (traceLevel > 2)
         {
-            System.out.println("stopTimer: stopping timer at " + time);
+            out.println("stopTimer: stopping timer at " + time);
+        }
+        if (binaryTrace != null)
+        {
+            binaryTrace.event(TraceWriter.TIMER_STOP, time, entity, tag);
         }
 
-        Event timer = eventList.removeTimer(entity);
+        TimerHandle[] timers = timerSlots(entity, tag);
+        TimerHandle timer = timers[tag];
+        timers[tag] = null;
 
         // Let the student know they are attempting to cancel a non-existant 
         // timer
-        if (timer == null)
+        if (!cancelTimer(timer))
         {
-            System.out.println("stopTimer: Warning: Unable to cancel your " +
+            out.println("stopTimer: Warning: Unable to cancel your " +
                                "timer");
         }        
     }
     
     protected void startTimer(int entity, double increment)
+    {
+        startTimer(entity, entity, increment);
+    }
+    
+    protected void startTimer(int entity, int tag, double increment)
     {
         if (traceLevel > 2)
         {
-            System.out.println("startTimer: starting timer at " + time);
+            out.println("startTimer: starting timer at " + time);
+        }
+        if (binaryTrace != null)
+        {
+            binaryTrace.event(TraceWriter.TIMER_START, time, entity, tag);
         }
 
-        Event t = eventList.removeTimer(entity);        
+        TimerHandle[] timers = timerSlots(entity, tag);
+        TimerHandle t = timers[tag];
 
         if (t != null)
         {
-            System.out.println("startTimer: Warning: Attempting to start a " +
+            out.println("startTimer: Warning: Attempting to start a " +
                                "timer that is already running");
-            eventList.add(t);
+            
+            // The running timer keeps its expiry but goes to the back of
+            // any events scheduled for the same time
+            cancelTimer(t);
+            timers[tag] = armTimer(entity, t.getExpiry(), tag);
             return;
         }
         else
         {
-            Event timer = new Event(time + increment, TIMERINTERRUPT, entity);
-            eventList.add(timer);
+            timers[tag] = armTimer(entity, time + increment, tag);
         }
     }    
     
     protected void toLayer3(int callingEntity, Packet p)
+    {
+        toLayer3(callingEntity, p, false);
+    }
+    
+    /* As above, telling the trace whether the packet is being sent again */
+    protected void toLayer3(int callingEntity, Packet p, boolean retransmission)
     {
         nToLayer3++;
         
         int destination;
         double arrivalTime;
-        Packet packet = new Packet(p);
+        
+        // The channel and the receiver share one frozen copy.  It shares
+        // the payload and SACK arrays, and the sender's own packet stays
+        // free to change, as it was before; a packet the sender froze
+        // itself is sent as is
+        Packet packet = p.isFrozen() ? p : new Packet(p).freeze();
     
         if (traceLevel > 2)
         {
-            System.out.println("toLayer3: " + packet);
+            out.println("toLayer3: " + packet);
         }
 
-        // Set our destination
-        if (callingEntity == A)
+        // Set our destination, the other end of the calling entity's pair
+        if ((callingEntity >= 0) && (callingEntity < numEntities))
         {
-            destination = B;
-        }
-        else if (callingEntity == B)
-        {
-            destination = A;
+            destination = callingEntity ^ 1;
         }
         else
         {
-            System.out.println("toLayer3: Warning: invalid packet sender");
+            out.println("toLayer3: Warning: invalid packet sender");
             return;
         }
 
+        // Pick this packet's loss and corruption probabilities: fixed,
+        // or those of the direction's channel state
+        double loss = lossProb;
+        double corrupt = corruptProb;
+        GilbertElliottChannel channel =
+            (channels == null) ? null : channels[destination % 2];
+        if (channel != null)
+        {
+            channel.next();
+            loss = channel.getLossProb();
+            corrupt = channel.getCorruptProb();
+        }
+        
         // Simulate losses
-        if (rand.nextDouble(1) < lossProb)
+        if (rand.nextDouble(1) < loss)
         {
             nLost++;
             
             if (traceLevel > 0)
             {
-                System.out.println("toLayer3: packet being lost");
+                out.println("toLayer3: packet being lost");
             }
+            traceSend(callingEntity, packet, retransmission, TraceWriter.LOST);
             
             return;
         }
         
         // Decide when the packet will arrive.  Since the medium cannot
         // reorder, the packet will arrive 1 to 10 time units after the
-        // last packet sent by this sender
-        arrivalTime = eventList.getLastPacketTime(destination);
-        
-        if (arrivalTime <= 0.0)
+        // last packet sent in the same direction, by any pair
+        if (links == null)
         {
-            arrivalTime = time;
+            arrivalTime = getLastPacketTime(destination % 2);
+            
+            if (arrivalTime <= 0.0)
+            {
+                arrivalTime = time;
+            }
+            
+            arrivalTime = arrivalTime + 1 + (rand.nextDouble(2) * 9);
+        }
+        else
+        {
+            // A bottleneck link queues the packet behind the others, or
+            // drops it when the queue is full
+            arrivalTime = links[destination % 2].send(time,
+                              12 + packet.getPayloadLength() +
+                              8 * packet.getSackBlockCount());
+            
+            if (arrivalTime < 0)
+            {
+                if (traceLevel > 0)
+                {
+                    out.println("toLayer3: packet dropped by " +
+                                       "the bottleneck queue");
+                }
+                traceSend(callingEntity, packet, retransmission, TraceWriter.DROPPED);
+                
+                return;
+            }
         }
-        
-        arrivalTime = arrivalTime + 1 + (rand.nextDouble(2) * 9);
 
         // Simulate corruption
-        if (rand.nextDouble(3) < corruptProb)
+        if (rand.nextDouble(3) < corrupt)
         {
             nCorrupt++;
             
             if (traceLevel > 0)
             {
-                System.out.println("toLayer3: packet being corrupted");
+                out.println("toLayer3: packet being corrupted");
             }
+            traceSend(callingEntity, packet, retransmission, TraceWriter.CORRUPTED);
             
-            double x = rand.nextDouble(4);
-            if (x < 0.75)
-            {
-                String payload = packet.getPayload();
-                
-                if (payload.length()>0)
-                        
-                    payload = "?" + payload.substring(1);
-		
-		        else payload = "?";
-                
-                packet.setPayload(payload);
-            }
-            else if (x < 0.875)
-            {
-                packet.setSeqnum(999999);
-            }
-            else
-            {
-                packet.setAcknum(999999);
-            }
+            packet = corruptPacket(packet, rand.nextDouble(4));
+        }
+        else
+        {
+            traceSend(callingEntity, packet, retransmission, 0);
         }
         
 
         // Finally, create and schedule this event
         if (traceLevel > 2)
         {
-            System.out.println("toLayer3: scheduling arrival on other side");
+            out.println("toLayer3: scheduling arrival on other side");
         }
         Event arrival = new Event(arrivalTime, FROMLAYER3, destination, packet);
         eventList.add(arrival);
+        lastArrivalTime[destination % 2] = arrivalTime;
+        pendingArrivals[destination % 2]++;
+    }
+    
+    private void traceSend(int entity, Packet packet, boolean retransmission,
+                           int flags)
+    {
+        if (binaryTrace != null)
+        {
+            binaryTrace.packet(TraceWriter.SEND, time, entity, packet,
+                               flags | (retransmission ? TraceWriter.RETRANSMITTED : 0));
+        }
+    }
+    
+    /* Same answer as EventList.getLastPacketTime() gives with a single
+       pair, without walking the event list: arrivals in one direction
+       are scheduled in increasing time order, so the latest pending one
+       is the last one scheduled */
+    private double getLastPacketTime(int direction)
+    {
+        if (pendingArrivals[direction] == 0)
+        {
+            return 0;
+        }
+        
+        return lastArrivalTime[direction];
+    }
+    
+    /* The channel's corruption model: x, uniform on [0, 1], picks the
+       damage.  Returns a frozen, corrupted copy of the packet */
+    protected static Packet corruptPacket(Packet p, double x)
+    {
+        Packet packet = new Packet(p);
+        
+        if (x < 0.75)
+        {
+            byte[] payload = packet.payloadBytes();
+            
+            if (payload.length > 0)
+            {
+                payload = payload.clone();
+            }
+            else
+            {
+                payload = new byte[1];
+            }
+            
+            payload[0] = '?';
+            packet.setPayload(payload);
+        }
+        else if (x < 0.875)
+        {
+            packet.setSeqnum(999999);
+        }
+        else
+        {
+            packet.setAcknum(999999);
+        }
+        
+        return packet.freeze();
     }
     
     protected void toLayer5(String dataSent)
     {
+        toLayer5(B, dataSent);
+    }
+    
+    /* Deliver at any entity.  With the file sinks B's deliveries go to
+       OutputFile as before, A's (duplex mode only) to OutputFileA, and
+       those of the other pairs to OutputFileFlows, each line led by the
+       entity */
+    protected void toLayer5(int entity, String dataSent)
+    {
+        if (verifier != null)
+        {
+            verifier.delivered(entity, dataSent, time);
+        }
+        if (binaryTrace != null)
+        {
+            binaryTrace.message(TraceWriter.DELIVER, time, entity, dataSent);
+        }
+        
+	try{
+            sink.deliver(entity, dataSent);
+	}catch (Exception e) {e.printStackTrace();}
+    }
+    
+    /* Deliver the first count packets of run, in order, at once */
+    protected void toLayer5(int entity, Packet[] run, int count)
+    {
+        if (count == 0)
+        {
+            return;
+        }
+        
+        if (verifier != null)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                verifier.delivered(entity, run[i].payloadBytes(), time);
+            }
+        }
+        if (binaryTrace != null)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                binaryTrace.packet(TraceWriter.DELIVER, time, entity, run[i], 0);
+            }
+        }
+        
 	try{
-	    outFile.write(dataSent,0,MAXDATASIZE);
-	    outFile.write('\n');
+            sink.deliver(entity, run, count);
 	}catch (Exception e) {e.printStackTrace();}
     }
     
@@ -354,7 +1162,7 @@ public abstract class NetworkSimulator
     
     protected void printEventList()
     {
-        System.out.println(eventList.toString());
+        out.println(eventList.toString());
     }
     
 }
@@ -0,0 +1,21 @@
+public class NullDeliverySink implements DeliverySink
+{
+    // Throws the deliveries away, for benchmark and sweep runs that only
+    // want the statistics
+    public void deliver(int entity, String data)
+    {
+    }
+
+    public void deliver(int entity, Packet[] run, int count)
+    {
+    }
+
+    public void close()
+    {
+    }
+
+    public String getName()
+    {
+        return "none";
+    }
+}
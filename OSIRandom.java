@@ -1,10 +1,13 @@
 public class OSIRandom
 {
-    private long seed[] = new long[5];
+    // Independent streams: 0 message arrivals, 1 loss, 2 delay,
+    // 3 corruption, 4 corruption kind, 5 RED drops, 6 message sizes,
+    // 7 channel state
+    private long seed[] = new long[8];
 
     public OSIRandom(int s)
     {
-	for (int i=0;i<5;i++)
+	for (int i=0;i<seed.length;i++)
 	  seed[i] = (s+i) & 0xFFFFFFFFL;
     }
 
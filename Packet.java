@@ -1,24 +1,32 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public class Packet
 {
     private int seqnum;
     private int acknum;
     private int checksum;
-    private String payload;
-    private int[] sack;  // Added for SACK support
+    private byte[] payload;
+    private String payloadString;  // built on first getPayload()
+    private int[] sack;  // SACK blocks as [left, right) edge pairs
+    private int sackBlocks;
+    
+    // The packet layer 3 schedules is a frozen copy of the one it was
+    // given: the channel and the receiver share that instance, so the
+    // setters refuse to change it.  The payload and SACK arrays are never
+    // modified in place, so copies can share them too.
+    private boolean frozen;
     
     public Packet(Packet p)
     {
         seqnum = p.getSeqnum();
         acknum = p.getAcknum();
         checksum = p.getChecksum();
-        payload = new String(p.getPayload());
-        if (p.getSack() != null) {
-            sack = new int[5];
-            int[] pSack = p.getSack();
-            for (int i = 0; i < 5; i++) {
-                sack[i] = pSack[i];
-            }
-        }
+        payload = p.payload;
+        payloadString = p.payloadString;
+        sack = p.sack;
+        sackBlocks = p.sackBlocks;
     }
     
     public Packet(int seq, int ack, int check, String newPayload)
@@ -28,7 +36,7 @@ public class Packet
         checksum = check;
         if (newPayload == null)
         {
-            payload = "";
+            payload = new byte[0];
         }        
         else if (newPayload.length() > NetworkSimulator.MAXDATASIZE)
         {
@@ -36,75 +44,150 @@ public class Packet
         }
         else
         {
-            payload = new String(newPayload);
+            payload = newPayload.getBytes(StandardCharsets.ISO_8859_1);
+            payloadString = newPayload;
+        }
+    }
+    
+    public Packet(int seq, int ack, int check, byte[] newPayload)
+    {
+        seqnum = seq;
+        acknum = ack;
+        checksum = check;
+        if (newPayload == null)
+        {
+            payload = new byte[0];
+        }        
+        else if (newPayload.length > NetworkSimulator.MAXDATASIZE)
+        {
+            payload = null;
         }
-        sack = new int[5];
-        for (int i = 0; i < 5; i++) {
-            sack[i] = -1;
+        else
+        {
+            payload = newPayload.clone();
         }
     }
     
+    // A packet carrying a message's data.  Messages never change their
+    // array, so the packet shares it instead of copying it again
+    Packet(int seq, int ack, int check, Message message)
+    {
+        seqnum = seq;
+        acknum = ack;
+        checksum = check;
+        payload = message.dataBytes();
+    }
+
     public Packet(int seq, int ack, int check)
     {
         seqnum = seq;
         acknum = ack;
         checksum = check;
-        payload = "";
-        sack = new int[5];
-        for (int i = 0; i < 5; i++) {
-            sack[i] = -1;
-        }
+        payload = new byte[0];
     }    
         
 
+    public Packet freeze()
+    {
+        frozen = true;
+        return this;
+    }
+    
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
     public boolean setSeqnum(int n)
     {
+        if (frozen)
+        {
+            return false;
+        }
         seqnum = n;
         return true;
     }
     
     public boolean setAcknum(int n)
     {
+        if (frozen)
+        {
+            return false;
+        }
         acknum = n;
         return true;
     }
     
     public boolean setChecksum(int n)
     {
+        if (frozen)
+        {
+            return false;
+        }
         checksum = n;
         return true;
     }
     
     public boolean setPayload(String newPayload)
     {
-        if (newPayload == null)
+        if (frozen)
+        {
+            return false;
+        }
+        else if (newPayload == null)
         {
-            payload = "";
+            payload = new byte[0];
+            payloadString = null;
             return false;
         }        
         else if (newPayload.length() > NetworkSimulator.MAXDATASIZE)
         {
-            payload = "";
+            payload = new byte[0];
+            payloadString = null;
             return false;
         }
         else
         {
-            payload = new String(newPayload);
+            payload = newPayload.getBytes(StandardCharsets.ISO_8859_1);
+            payloadString = newPayload;
             return true;
         }
     }
     
-    public boolean setSack(int[] newSack)
+    public boolean setPayload(byte[] newPayload)
     {
-        if (newSack == null || newSack.length != 5)
+        if (frozen)
         {
             return false;
         }
-        sack = new int[5];
-        for (int i = 0; i < 5; i++)
+        
+        payloadString = null;
+        if (newPayload == null)
+        {
+            payload = new byte[0];
+            return false;
+        }        
+        else if (newPayload.length > NetworkSimulator.MAXDATASIZE)
+        {
+            payload = new byte[0];
+            return false;
+        }
+        else
+        {
+            payload = newPayload.clone();
+            return true;
+        }
+    }
+    
+    // Copies the first 'blocks' [left, right) pairs out of edges
+    public boolean setSack(int[] edges, int blocks)
+    {
+        if (frozen || edges == null || blocks < 0 || edges.length < 2 * blocks)
         {
-            sack[i] = newSack[i];
+            return false;
         }
+        sack = Arrays.copyOf(edges, 2 * blocks);
+        sackBlocks = blocks;
         return true;
     }
     
@@ -123,14 +206,46 @@ public class Packet
         return checksum;
     }
     
+    // String view of the payload, kept for existing callers
     public String getPayload()
+    {
+        if (payloadString == null && payload != null)
+        {
+            payloadString = new String(payload, StandardCharsets.ISO_8859_1);
+        }
+        return payloadString;
+    }
+    
+    public int getPayloadLength()
+    {
+        return (payload == null) ? 0 : payload.length;
+    }
+    
+    public ByteBuffer getPayloadBuffer()
+    {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+    
+    // The payload array itself, for code in this package that only
+    // reads it (checksums, the channel); never modify it
+    byte[] payloadBytes()
     {
         return payload;
     }
     
-    public int[] getSack()
+    public int getSackBlockCount()
+    {
+        return sackBlocks;
+    }
+    
+    public int getSackLeft(int block)
+    {
+        return sack[2 * block];
+    }
+    
+    public int getSackRight(int block)
     {
-        return sack;
+        return sack[2 * block + 1];
     }
     
     public String toString()
@@ -139,14 +254,13 @@ public class Packet
         sb.append("seqnum: ").append(seqnum);
         sb.append("  acknum: ").append(acknum);
         sb.append("  checksum: ").append(checksum);
-        sb.append("  payload: ").append(payload);
-        if (sack != null) {
-            sb.append("  sack: [");
-            for (int i = 0; i < 5; i++) {
-                if (i > 0) sb.append(", ");
-                sb.append(sack[i]);
+        sb.append("  payload: ").append(getPayload());
+        if (sackBlocks > 0) {
+            sb.append("  sack:");
+            for (int i = 0; i < sackBlocks; i++) {
+                sb.append(" [").append(sack[2 * i]);
+                sb.append(", ").append(sack[2 * i + 1]).append(")");
             }
-            sb.append("]");
         }
         return sb.toString();
     }
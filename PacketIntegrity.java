@@ -0,0 +1,24 @@
+import java.io.PrintStream;
+
+public interface PacketIntegrity {
+    /*
+     * Integrity check stored in a packet's checksum field. It covers the
+     * sequence and ACK numbers, the payload and any SACK blocks.
+     */
+    int checksum(Packet packet);
+
+    String getName();
+
+    // Pick an implementation by name: additive, internet or crc32c. An
+    // unknown name is reported on log
+    static PacketIntegrity forName(String name, PrintStream log) {
+        if (name.equals("internet")) {
+            return new InternetChecksum();
+        } else if (name.equals("crc32c")) {
+            return new Crc32cChecksum();
+        } else if (!name.equals("additive")) {
+            log.println("Unknown checksum \"" + name + "\", using additive");
+        }
+        return new AdditiveChecksum();
+    }
+}
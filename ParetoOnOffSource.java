@@ -0,0 +1,64 @@
+import java.util.function.DoubleSupplier;
+
+public class ParetoOnOffSource implements TrafficSource
+{
+    // Bursty on/off traffic.  During an ON period messages come every
+    // mean / peakRatio time units; ON and OFF period lengths are Pareto
+    // distributed with the given shape, so a few bursts and silences are
+    // very long.  The OFF periods are sized so that the long-run mean
+    // interval is still mean.  Shapes at or below 1 have no finite mean,
+    // so the shape is kept above 1.
+    private double peakInterval;
+    private double meanOn;
+    private double meanOff;
+    private double shape;
+    private int remaining;  // messages left in the current burst
+    private DoubleSupplier random;
+    private DoubleSupplier sizes;
+
+    public ParetoOnOffSource(double mean, double burstLength,
+                             double peakRatio, double shape,
+                             DoubleSupplier random, DoubleSupplier sizes)
+    {
+        peakInterval = mean / Math.max(1, peakRatio);
+        meanOn = Math.max(1, burstLength) * peakInterval;
+        meanOff = Math.max(1, burstLength) * mean - meanOn;
+        this.shape = Math.max(shape, 1.01);
+        this.random = random;
+        this.sizes = sizes;
+        remaining = 0;
+    }
+
+    public double nextInterval()
+    {
+        double gap = 0;
+
+        if (remaining == 0)
+        {
+            // The burst is over: stay silent, then start another
+            gap = pareto(meanOff);
+            remaining = Math.max(1, (int) Math.round(pareto(meanOn) / peakInterval));
+        }
+
+        remaining--;
+        return gap + peakInterval;
+    }
+
+    // A Pareto draw with the given mean.  The scale is
+    // mean * (shape - 1) / shape, and 1 - u is in (0, 1]
+    private double pareto(double mean)
+    {
+        double scale = mean * (shape - 1) / shape;
+        return scale / Math.pow(1 - random.getAsDouble(), 1 / shape);
+    }
+
+    public int nextSize()
+    {
+        return TrafficSource.drawSize(sizes);
+    }
+
+    public String getName()
+    {
+        return "pareto";
+    }
+}
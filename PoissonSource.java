@@ -0,0 +1,34 @@
+import java.util.function.DoubleSupplier;
+
+public class PoissonSource implements TrafficSource
+{
+    // Poisson arrivals: exponentially distributed intervals with the
+    // given mean
+    private double mean;
+    private DoubleSupplier random;
+    private DoubleSupplier sizes;
+
+    public PoissonSource(double mean, DoubleSupplier random,
+                         DoubleSupplier sizes)
+    {
+        this.mean = mean;
+        this.random = random;
+        this.sizes = sizes;
+    }
+
+    public double nextInterval()
+    {
+        // 1 - u is in (0, 1], so the log is finite
+        return -mean * Math.log(1 - random.getAsDouble());
+    }
+
+    public int nextSize()
+    {
+        return TrafficSource.drawSize(sizes);
+    }
+
+    public String getName()
+    {
+        return "poisson";
+    }
+}
@@ -268,6 +268,27 @@ public class Project
         simulator = new StudentNetworkSimulator(nsim, loss, corrupt, delay,
                                                 trace, seed, windowsize, timeout);
                                                 
-        simulator.runSimulator();
+        SimulationResult result = simulator.runSimulator();
+        
+        // -Dcsv=file and -Djson=file append this run's result
+        try
+        {
+            if (System.getProperty("csv") != null)
+            {
+                ResultWriter writer = new CsvResultWriter(new File(System.getProperty("csv")));
+                writer.write(result);
+                writer.close();
+            }
+            if (System.getProperty("json") != null)
+            {
+                ResultWriter writer = new JsonResultWriter(new File(System.getProperty("json")));
+                writer.write(result);
+                writer.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            System.out.println("IOError writing the result: " + ioe.getMessage());
+        }
     }
 }
@@ -0,0 +1,98 @@
+public class ReceiverBuffer {
+    /*
+     * Out-of-order packets held at the receiver, one slot per position in
+     * the receive window. The sequence space is twice the window, so the
+     * packets inside any one window fall into distinct slots (seq % window).
+     * An occupancy bitmap lets drain() find the run of packets that has
+     * become deliverable a word at a time instead of probing each number.
+     */
+
+    private final int capacity;
+    private final Packet[] slots;
+    private final long[] occupied;
+    private final Packet[] run;
+
+    public ReceiverBuffer(int windowSize) {
+        capacity = windowSize;
+        slots = new Packet[windowSize];
+        occupied = new long[(windowSize + 63) >>> 6];
+        run = new Packet[windowSize];
+    }
+
+    public boolean contains(int seq) {
+        int slot = seq % capacity;
+        return (occupied[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    // Returns false if a packet for this slot is already buffered
+    public boolean put(int seq, Packet packet) {
+        if (contains(seq)) return false;
+        int slot = seq % capacity;
+        slots[slot] = packet;
+        occupied[slot >>> 6] |= 1L << slot;
+        return true;
+    }
+
+    /*
+     * Removes the contiguous run of buffered packets starting at fromSeq
+     * and returns its length. The packets are left, in order, at the start
+     * of getRun() until the next call.
+     */
+    public int drain(int fromSeq) {
+        int start = fromSeq % capacity;
+        int length = runLength(start, capacity, true);
+        for (int i = 0; i < length; i++) {
+            int slot = (start + i) % capacity;
+            run[i] = slots[slot];
+            slots[slot] = null;
+            occupied[slot >>> 6] &= ~(1L << slot);
+        }
+        return length;
+    }
+
+    public Packet[] getRun() {
+        return run;
+    }
+
+    /*
+     * Writes up to maxBlocks SACK blocks, as [left, right) pairs of
+     * sequence numbers, for the packets buffered beyond expectedSeq and
+     * returns how many were written. Blocks are in sequence order.
+     */
+    public int sackBlocks(int expectedSeq, int limitSeqNo, int[] edges, int maxBlocks) {
+        int start = expectedSeq % capacity;
+        int blocks = 0;
+        int i = 0;
+        while (blocks < maxBlocks) {
+            i += runLength((start + i) % capacity, capacity - i, false);
+            if (i >= capacity) break;
+            int length = runLength((start + i) % capacity, capacity - i, true);
+            edges[2 * blocks] = (expectedSeq + i) % limitSeqNo;
+            edges[2 * blocks + 1] = (expectedSeq + i + length) % limitSeqNo;
+            blocks++;
+            i += length;
+        }
+        return blocks;
+    }
+
+    /*
+     * Number of consecutive occupied (or free) slots from start, wrapping
+     * at capacity and stopping after maxLength.
+     */
+    private int runLength(int start, int maxLength, boolean occupiedRun) {
+        int length = 0;
+        int bit = start;
+        while (length < maxLength) {
+            int offset = bit & 63;
+            int limit = Math.min(Math.min(64 - offset, capacity - bit), maxLength - length);
+            long bits = occupied[bit >>> 6] >>> offset;
+            int count = Long.numberOfTrailingZeros(occupiedRun ? ~bits : bits);
+            if (count < limit) {
+                return length + count;
+            }
+            length += limit;
+            bit = (bit + limit) % capacity;
+        }
+        return length;
+    }
+}
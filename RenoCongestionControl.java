@@ -0,0 +1,43 @@
+public class RenoCongestionControl implements CongestionControl {
+    /*
+     * Reno-style AIMD after RFC 5681, counted in packets. Below ssthresh
+     * the window grows by one packet per packet acknowledged (slow
+     * start), above it by about one packet per window (congestion
+     * avoidance). A loss halves the window; a timeout also halves
+     * ssthresh but restarts slow start from one packet.
+     */
+
+    private final int maxWindow;
+    private double cwnd = 1;
+    private double ssthresh;
+
+    public RenoCongestionControl(int maxWindow) {
+        this.maxWindow = maxWindow;
+        ssthresh = maxWindow;
+    }
+
+    public void onAck(int acked, double rtt) {
+        for (int i = 0; i < acked; i++) {
+            cwnd += (cwnd < ssthresh) ? 1 : 1 / cwnd;
+        }
+        cwnd = Math.min(cwnd, maxWindow);
+    }
+
+    public void onLoss() {
+        ssthresh = Math.max(cwnd / 2, 2);
+        cwnd = Math.min(ssthresh, maxWindow);
+    }
+
+    public void onTimeout() {
+        ssthresh = Math.max(cwnd / 2, 2);
+        cwnd = 1;
+    }
+
+    public int getWindow() {
+        return Math.max(1, (int) cwnd);
+    }
+
+    public String getName() {
+        return "reno";
+    }
+}
@@ -0,0 +1,11 @@
+import java.io.IOException;
+
+public interface ResultWriter
+{
+    // Appends one record per run to a file, so that many runs can be
+    // collected for analysis without parsing the printed statistics.
+    // write() may be called from several threads.
+    public void write(SimulationResult result) throws IOException;
+
+    public void close() throws IOException;
+}
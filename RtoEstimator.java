@@ -0,0 +1,85 @@
+public class RtoEstimator {
+    /*
+     * Retransmission timeout from RTT samples, after Jacobson/Karels as
+     * specified in RFC 6298: SRTT and RTTVAR are exponentially weighted
+     * averages and RTO = SRTT + 4 * RTTVAR, clamped to [minRto, maxRto].
+     * Each timeout doubles the RTO, at most maxBackoffs times in a row and
+     * never beyond maxRto. Following Karn's rule the backed-off RTO is
+     * kept until the next valid sample, and callers do not pass samples
+     * from retransmitted packets.
+     *
+     * With adaptive == false a sample only restores the initial value, so
+     * with maxBackoffs == 0 the RTO stays there, which is the fixed
+     * RxmtInterval behaviour.
+     */
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private final boolean adaptive;
+    private final double minRto;
+    private final double maxRto;
+    private final int maxBackoffs;
+    private double srtt;
+    private double rttvar;
+    private double baseRto;  // RTO before any backoff
+    private double rto;
+    private boolean haveSample;
+    private int backoffs;
+
+    public RtoEstimator(double initialRto, boolean adaptive, double minRto, double maxRto,
+                        int maxBackoffs) {
+        this.adaptive = adaptive;
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.maxBackoffs = maxBackoffs;
+        baseRto = initialRto;
+        rto = initialRto;
+    }
+
+    public void sample(double rtt) {
+        if (!adaptive) {
+            rto = baseRto;
+            backoffs = 0;
+            return;
+        }
+        if (!haveSample) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+            haveSample = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        baseRto = clamp(srtt + 4 * rttvar);
+        rto = baseRto;
+        backoffs = 0;
+    }
+
+    // Called on a retransmission timeout
+    public void backoff() {
+        if (backoffs >= maxBackoffs) return;
+        rto = clamp(rto * 2);
+        backoffs++;
+    }
+
+    public double getRto() {
+        return rto;
+    }
+
+    public double getSrtt() {
+        return srtt;
+    }
+
+    public double getRttvar() {
+        return rttvar;
+    }
+
+    public int getBackoffs() {
+        return backoffs;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minRto, Math.min(maxRto, value));
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+public class SenderWindow {
+    /*
+     * Per-sequence-number sender state, replacing the HashMaps and
+     * HashSets keyed by sequence number. Sequence numbers are already
+     * bounded by LimitSeqNo, so each field is a plain array (or bitset)
+     * indexed by the sequence number and nothing is boxed on the send or
+     * ACK path. Numbers outside [0, LimitSeqNo) are never stored, which
+     * matches a map that would simply never be asked for them.
+     */
+
+    private final int limitSeqNo;
+    private final Packet[] packets;
+    private final double[] rttStartTimes;   // NaN when no sample is pending
+    private final double[] commStartTimes;  // NaN when not yet acknowledged
+    private final long[] sacked;
+    private final long[] retransmitted;
+
+    public SenderWindow(int limitSeqNo) {
+        this.limitSeqNo = limitSeqNo;
+        packets = new Packet[limitSeqNo];
+        rttStartTimes = new double[limitSeqNo];
+        commStartTimes = new double[limitSeqNo];
+        Arrays.fill(rttStartTimes, Double.NaN);
+        Arrays.fill(commStartTimes, Double.NaN);
+        sacked = new long[(limitSeqNo + 63) >>> 6];
+        retransmitted = new long[(limitSeqNo + 63) >>> 6];
+    }
+
+    private boolean inRange(int seq) {
+        return seq >= 0 && seq < limitSeqNo;
+    }
+
+    // Buffered packets; a new packet starts out not retransmitted
+    public void put(int seq, Packet packet) {
+        packets[seq] = packet;
+        retransmitted[seq >>> 6] &= ~(1L << seq);
+    }
+
+    public Packet get(int seq) {
+        return inRange(seq) ? packets[seq] : null;
+    }
+
+    public boolean contains(int seq) {
+        return inRange(seq) && packets[seq] != null;
+    }
+
+    public Packet remove(int seq) {
+        if (!inRange(seq)) return null;
+        Packet packet = packets[seq];
+        packets[seq] = null;
+        return packet;
+    }
+
+    // Send time of the transmission an RTT sample will be taken from
+    public void putRttStart(int seq, double time) {
+        rttStartTimes[seq] = time;
+    }
+
+    public boolean hasRttStart(int seq) {
+        return inRange(seq) && !Double.isNaN(rttStartTimes[seq]);
+    }
+
+    public double removeRttStart(int seq) {
+        if (!inRange(seq)) return Double.NaN;
+        double time = rttStartTimes[seq];
+        rttStartTimes[seq] = Double.NaN;
+        return time;
+    }
+
+    // Time the packet was first handed to layer 3
+    public void putCommStart(int seq, double time) {
+        commStartTimes[seq] = time;
+    }
+
+    public boolean hasCommStart(int seq) {
+        return inRange(seq) && !Double.isNaN(commStartTimes[seq]);
+    }
+
+    public double removeCommStart(int seq) {
+        if (!inRange(seq)) return Double.NaN;
+        double time = commStartTimes[seq];
+        commStartTimes[seq] = Double.NaN;
+        return time;
+    }
+
+    // Selectively acknowledged
+    public void setSacked(int seq) {
+        if (inRange(seq)) sacked[seq >>> 6] |= 1L << seq;
+    }
+
+    public boolean isSacked(int seq) {
+        return inRange(seq) && (sacked[seq >>> 6] & (1L << seq)) != 0;
+    }
+
+    public void clearSacked(int seq) {
+        if (inRange(seq)) sacked[seq >>> 6] &= ~(1L << seq);
+    }
+
+    // Sent more than once, so an ACK for it is an ambiguous RTT sample
+    public void setRetransmitted(int seq) {
+        if (inRange(seq)) retransmitted[seq >>> 6] |= 1L << seq;
+    }
+
+    public boolean isRetransmitted(int seq) {
+        return inRange(seq) && (retransmitted[seq >>> 6] & (1L << seq)) != 0;
+    }
+}
@@ -0,0 +1,218 @@
+public final class SimulationResult
+{
+    // The outcome of one run: the parameters it was started with, the
+    // protocol's counters summed over all flows, what the channel did to
+    // the packets, and the ratios and rates derived from them.  FIELDS
+    // names the values in the order toArray() returns them, which is the
+    // column order of the CSV and JSON writers.
+    public static final String[] FIELDS = {
+        "protocol", "messages", "loss", "corrupt", "avgDelay", "window",
+        "timeout", "seed", "flows",
+        "originalPackets", "retransmissions", "delivered", "acks",
+        "corrupted", "channelPackets", "channelLost", "channelCorrupted",
+        "queueDrops",
+        "lossRatio", "corruptRatio", "averageRtt", "averageCommTime",
+        "totalTime", "throughput", "goodput", "pausedTime",
+        "averageWindow", "fairness", "violations"
+    };
+
+    private final String protocol;
+    private final int messages;
+    private final double loss;
+    private final double corrupt;
+    private final double avgDelay;
+    private final int window;
+    private final double timeout;
+    private final int seed;
+    private final int flows;
+
+    private final int originalPackets;
+    private final int retransmissions;
+    private final int delivered;
+    private final int acks;
+    private final int corrupted;
+    private final int channelPackets;
+    private final int channelLost;
+    private final int channelCorrupted;
+    private final int queueDrops;
+
+    private final double lossRatio;
+    private final double corruptRatio;
+    private final double averageRtt;
+    private final double averageCommTime;
+    private final double totalTime;
+    private final double throughput;
+    private final double goodput;
+    private final double pausedTime;
+    private final double averageWindow;
+    private final double fairness;
+    private final long violations;
+
+    private SimulationResult(Builder b)
+    {
+        protocol = b.protocol;
+        messages = b.messages;
+        loss = b.loss;
+        corrupt = b.corrupt;
+        avgDelay = b.avgDelay;
+        window = b.window;
+        timeout = b.timeout;
+        seed = b.seed;
+        flows = b.flows;
+        originalPackets = b.originalPackets;
+        retransmissions = b.retransmissions;
+        delivered = b.delivered;
+        acks = b.acks;
+        corrupted = b.corrupted;
+        channelPackets = b.channelPackets;
+        channelLost = b.channelLost;
+        channelCorrupted = b.channelCorrupted;
+        queueDrops = b.queueDrops;
+        lossRatio = b.lossRatio;
+        corruptRatio = b.corruptRatio;
+        averageRtt = b.averageRtt;
+        averageCommTime = b.averageCommTime;
+        totalTime = b.totalTime;
+        throughput = b.throughput;
+        goodput = b.goodput;
+        pausedTime = b.pausedTime;
+        averageWindow = b.averageWindow;
+        fairness = b.fairness;
+        violations = b.violations;
+    }
+
+    /* The values named by FIELDS, in the same order */
+    public Object[] toArray()
+    {
+        return new Object[] {
+            protocol, messages, loss, corrupt, avgDelay, window,
+            timeout, seed, flows,
+            originalPackets, retransmissions, delivered, acks,
+            corrupted, channelPackets, channelLost, channelCorrupted,
+            queueDrops,
+            lossRatio, corruptRatio, averageRtt, averageCommTime,
+            totalTime, throughput, goodput, pausedTime,
+            averageWindow, fairness, violations
+        };
+    }
+
+    // Run parameters
+    public String getProtocol() { return protocol; }
+    public int getMessages() { return messages; }
+    public double getLoss() { return loss; }
+    public double getCorrupt() { return corrupt; }
+    public double getAvgDelay() { return avgDelay; }
+    public int getWindow() { return window; }
+    public double getTimeout() { return timeout; }
+    public int getSeed() { return seed; }
+    public int getFlows() { return flows; }
+
+    // Protocol counters, summed over the flows
+    public int getOriginalPackets() { return originalPackets; }
+    public int getRetransmissions() { return retransmissions; }
+    public int getDelivered() { return delivered; }
+    public int getAcks() { return acks; }
+    public int getCorrupted() { return corrupted; }
+
+    // What the channel did: packets given to layer 3, lost, corrupted,
+    // and dropped by a bottleneck queue
+    public int getChannelPackets() { return channelPackets; }
+    public int getChannelLost() { return channelLost; }
+    public int getChannelCorrupted() { return channelCorrupted; }
+    public int getQueueDrops() { return queueDrops; }
+
+    // Derived figures, as printed in the statistics
+    public double getLossRatio() { return lossRatio; }
+    public double getCorruptRatio() { return corruptRatio; }
+    public double getAverageRtt() { return averageRtt; }
+    public double getAverageCommTime() { return averageCommTime; }
+    public double getTotalTime() { return totalTime; }
+    public double getThroughput() { return throughput; }
+    public double getGoodput() { return goodput; }
+    public double getPausedTime() { return pausedTime; }
+    public double getAverageWindow() { return averageWindow; }
+    public double getFairness() { return fairness; }
+
+    // Delivery violations found by -Dverify, or -1 if it was off
+    public long getViolations() { return violations; }
+
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("SimulationResult{");
+        Object[] values = toArray();
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            s.append((i > 0) ? ", " : "").append(FIELDS[i]).append('=').append(values[i]);
+        }
+
+        return s.append('}').toString();
+    }
+
+    public static class Builder
+    {
+        private String protocol = "";
+        private int messages;
+        private double loss;
+        private double corrupt;
+        private double avgDelay;
+        private int window;
+        private double timeout;
+        private int seed;
+        private int flows = 1;
+        private int originalPackets;
+        private int retransmissions;
+        private int delivered;
+        private int acks;
+        private int corrupted;
+        private int channelPackets;
+        private int channelLost;
+        private int channelCorrupted;
+        private int queueDrops;
+        private double lossRatio;
+        private double corruptRatio;
+        private double averageRtt;
+        private double averageCommTime;
+        private double totalTime;
+        private double throughput;
+        private double goodput;
+        private double pausedTime;
+        private double averageWindow;
+        private double fairness = 1;
+        private long violations = -1;
+
+        public Builder protocol(String v) { protocol = v; return this; }
+        public Builder messages(int v) { messages = v; return this; }
+        public Builder loss(double v) { loss = v; return this; }
+        public Builder corrupt(double v) { corrupt = v; return this; }
+        public Builder avgDelay(double v) { avgDelay = v; return this; }
+        public Builder window(int v) { window = v; return this; }
+        public Builder timeout(double v) { timeout = v; return this; }
+        public Builder seed(int v) { seed = v; return this; }
+        public Builder flows(int v) { flows = v; return this; }
+        public Builder originalPackets(int v) { originalPackets = v; return this; }
+        public Builder retransmissions(int v) { retransmissions = v; return this; }
+        public Builder delivered(int v) { delivered = v; return this; }
+        public Builder acks(int v) { acks = v; return this; }
+        public Builder corrupted(int v) { corrupted = v; return this; }
+        public Builder channelPackets(int v) { channelPackets = v; return this; }
+        public Builder channelLost(int v) { channelLost = v; return this; }
+        public Builder channelCorrupted(int v) { channelCorrupted = v; return this; }
+        public Builder queueDrops(int v) { queueDrops = v; return this; }
+        public Builder lossRatio(double v) { lossRatio = v; return this; }
+        public Builder corruptRatio(double v) { corruptRatio = v; return this; }
+        public Builder averageRtt(double v) { averageRtt = v; return this; }
+        public Builder averageCommTime(double v) { averageCommTime = v; return this; }
+        public Builder totalTime(double v) { totalTime = v; return this; }
+        public Builder throughput(double v) { throughput = v; return this; }
+        public Builder goodput(double v) { goodput = v; return this; }
+        public Builder pausedTime(double v) { pausedTime = v; return this; }
+        public Builder averageWindow(double v) { averageWindow = v; return this; }
+        public Builder fairness(double v) { fairness = v; return this; }
+        public Builder violations(long v) { violations = v; return this; }
+
+        public SimulationResult build()
+        {
+            return new SimulationResult(this);
+        }
+    }
+}
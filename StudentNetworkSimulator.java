@@ -29,33 +29,56 @@ public class StudentNetworkSimulator extends NetworkSimulator {
     private static final int SR_WINDOW = 8;
     private static final int GBN_WINDOW = 16;
     
-    // Common variables
-    private int Base;
-    private int NextSeqNum;
-    private int ExpectedSeqNum;
-    private Map<Integer, Packet> senderBuffer;
-    private Map<Integer, Packet> receiverBuffer;
-    private Queue<Packet> waitingQueue;
-    private Map<Integer, Double> rttStartTimes;
-    private Map<Integer, Double> commStartTimes;
-    private Set<Integer> ackedPackets;
-    
-    // Statistics
-    private int originalPacketsTransmitted = 0;
-    private int retransmissions = 0;
-    private int packetsToLayer5 = 0;
-    private int acksSent = 0;
+    // Every entity runs at most two timers: one for the flow it sends and
+    // one for the delayed ACKs of the flow it receives. For A and B these
+    // are the timers they always had
+    private static final int RETRANSMIT_TIMER = 0;
+    private static final int ACK_TIMER = 1;
+    
+    // Above this many flows the statistics leave out the per-flow lines
+    private static final int MAX_FLOW_LINES = 16;
+    
+    // Shared by every flow
     private int corruptedPackets = 0;
-    private double totalRTT = 0;
-    private int rttCount = 0;
-    private double totalCommTime = 0;
-    private int commTimeCount = 0;
-    private int totalDataBytes = 0;
-    private int totalGoodputBytes = 0;
     
-    // For GBN with SACK
-    private Set<Integer> sackedPackets;
-    private LinkedList<Integer> recentReceived;
+    // For GBN with SACK: most SACK blocks carried per ACK (-Dsackblocks)
+    private int maxSackBlocks;
+    private int[] sackEdges;
+    
+    // Checksum used for every packet (-Dchecksum=additive|internet|crc32c)
+    private PacketIntegrity integrity;
+    
+    // Selective Repeat with one logical timer per outstanding packet
+    // (-Dsrtimers=packet), multiplexed onto the sender's single
+    // retransmission timer
+    private boolean perPacketTimers;
+    
+    // Fast retransmit (-Ddupthresh=N): resend after N duplicate ACKs, once
+    // per loss episode, and stay in recovery until everything sent before
+    // the loss is acknowledged. 0 resends on every duplicate ACK
+    private int dupAckThreshold;
+    
+    // Whether retransmissions can crowd the link: other pairs share it,
+    // or GBN runs in duplex mode, where a timeout resends a whole window
+    // ahead of the reverse flow's ACKs. They then queue behind each
+    // other, which a fixed RTO cannot wait out and which GBN, resending
+    // every unSACKed packet on each duplicate ACK, keeps feeding, so
+    // there the RTO backs off and GBN's -Ddupthresh defaults to 3
+    private boolean crowdedLink;
+    
+    // Delayed ACKs (-Dackevery=N): an in-order arrival is ACKed once N are
+    // waiting or -Dackdelay time has passed. Gaps, duplicates and
+    // corrupted packets are still ACKed at once. N = 1 ACKs everything.
+    // In duplex mode N defaults to 2, since most ACKs then ride on data
+    private int ackEvery;
+    private double ackDelay;
+    
+    // One flow per direction of each pair: A to B, and with
+    // -Dduplex=true B to A too. -Dflows=N adds pairs, entities 2i and
+    // 2i+1, each running its own flows over the shared link
+    private Flow[] flows;
+    private Flow[] sending;    // by entity, the flow sending from it
+    private Flow[] receiving;  // by entity, the flow delivering at it
     
     // Constructor
     public StudentNetworkSimulator(int numMessages,
@@ -66,715 +89,1193 @@ public class StudentNetworkSimulator extends NetworkSimulator {
             int seed,
             int winsize,
             double delay) {
-        super(numMessages, loss, corrupt, avgDelay, trace, seed);
+        this(numMessages, loss, corrupt, avgDelay, trace, seed, winsize, delay,
+             System.out);
+    }
+    
+    // Constructor printing the trace and statistics to console, or
+    // nothing if it is null
+    public StudentNetworkSimulator(int numMessages,
+            double loss,
+            double corrupt,
+            double avgDelay,
+            int trace,
+            int seed,
+            int winsize,
+            double delay,
+            PrintStream console) {
+        super(numMessages, loss, corrupt, avgDelay, trace, seed, console);
         WindowSize = winsize;
         RxmtInterval = delay;
+        maxSackBlocks = Math.max(0, Integer.getInteger("sackblocks", 5));
+        sackEdges = new int[2 * maxSackBlocks];
+        integrity = PacketIntegrity.forName(System.getProperty("checksum", "additive"), out);
         
         // Automatically set protocol mode based on window size
         if (winsize == 1) {
             protocolMode = STOP_AND_WAIT;
             LimitSeqNo = 2;
-            System.out.println("Protocol: Stop-and-Wait (Window Size = 1)");
+            out.println("Protocol: Stop-and-Wait (Window Size = 1)");
         } else if (winsize == 16) {
             protocolMode = GBN_WITH_SACK;
             LimitSeqNo = winsize * 2;
-            System.out.println("Protocol: Go-Back-N with SACK (Window Size = 16)");
+            out.println("Protocol: Go-Back-N with SACK (Window Size = 16)");
         } else {
             protocolMode = SELECTIVE_REPEAT;
             LimitSeqNo = winsize * 2;
-            System.out.println("Protocol: Selective Repeat (Window Size = " + winsize + ")");
+            out.println("Protocol: Selective Repeat (Window Size = " + winsize + ")");
         }
-    }
-
-    // Calculate checksum
-    protected int calculateChecksum(int seqnum, int acknum, String payload) {
-        int checksum = seqnum + acknum;
-        if (payload != null) {
-            for (char c : payload.toCharArray()) {
-                checksum += (c & 0xFF);
+        crowdedLink = getNumEntities() > 2 || (isDuplex() && protocolMode == GBN_WITH_SACK);
+        dupAckThreshold = Math.max(0, Integer.getInteger("dupthresh",
+                (crowdedLink && protocolMode == GBN_WITH_SACK) ? 3 : 0));
+        perPacketTimers = protocolMode == SELECTIVE_REPEAT
+                && System.getProperty("srtimers", "base").equals("packet");
+        ackEvery = Math.max(1, Integer.getInteger("ackevery", isDuplex() ? 2 : 1));
+        ackDelay = Double.parseDouble(System.getProperty("ackdelay", String.valueOf(delay / 4)));
+        
+        int entities = getNumEntities();
+        sending = new Flow[entities];
+        receiving = new Flow[entities];
+        flows = new Flow[isDuplex() ? entities : entities / 2];
+        int n = 0;
+        for (int entity = 0; entity < entities; entity += 2) {
+            flows[n++] = new Flow(entity, entity + 1);
+            if (isDuplex()) {
+                flows[n++] = new Flow(entity + 1, entity);
+                flows[n - 1].reverse = flows[n - 2];
+                flows[n - 2].reverse = flows[n - 1];
             }
         }
-        return checksum & 0xFFFF;
+    }
+
+    // Checksum over the whole packet, including any SACK blocks
+    protected int calculateChecksum(Packet packet) {
+        return integrity.checksum(packet);
     }
 
     // Verify checksum
     protected boolean isCorrupted(Packet packet) {
         if (packet == null) return true;
-        int calculated = calculateChecksum(packet.getSeqnum(), 
-                                          packet.getAcknum(), 
-                                          packet.getPayload());
-        return calculated != packet.getChecksum();
+        return calculateChecksum(packet) != packet.getChecksum();
     }
 
     // Create data packet
-    protected Packet makeDataPacket(int seqnum, String data) {
-        int checksum = calculateChecksum(seqnum, -1, data);
-        return new Packet(seqnum, -1, checksum, data);
+    protected Packet makeDataPacket(int seqnum, Message message) {
+        Packet packet = new Packet(seqnum, -1, 0, message);
+        packet.setChecksum(calculateChecksum(packet));
+        return packet;
+    }
+
+    // A_output - called when layer 5 has data to send
+    protected void aOutput(Message message) {
+        output(A, message);
+    }
+
+    // B_output - B's layer 5 has data to send (duplex mode only)
+    protected void bOutput(Message message) {
+        output(B, message);
     }
 
-    // Create ACK packet (with optional SACK for GBN mode)
-    protected Packet makeAckPacket(int acknum) {
-        int checksum = calculateChecksum(-1, acknum, null);
-        Packet ack = new Packet(-1, acknum, checksum, null);
+    protected void output(int entity, Message message) {
+        sending[entity].output(message);
+    }
+
+    // Room left in the send buffer; at 0 the simulator pauses layer 5
+    protected int aFreeCapacity() {
+        return freeCapacity(A);
+    }
+
+    protected int bFreeCapacity() {
+        return freeCapacity(B);
+    }
+
+    protected int freeCapacity(int entity) {
+        return sending[entity] == null ? 0 : sending[entity].freeCapacity();
+    }
+
+    // A_input - called when a packet arrives at A
+    protected void aInput(Packet packet) {
+        input(A, packet);
+    }
+
+    // B_input - called when a packet arrives at B
+    protected void bInput(Packet packet) {
+        input(B, packet);
+    }
+
+    // A packet carries data for the flow delivering at this entity, an ACK
+    // for the flow sending from it, or (piggybacked) both
+    protected void input(int entity, Packet packet) {
+        String name = entityName(entity);
+        if (traceLevel >= 2) {
+            out.println(name + "_input: got packet " + packet);
+        }
         
-        // Add SACK info for GBN mode
-        if (protocolMode == GBN_WITH_SACK && recentReceived != null && !recentReceived.isEmpty()) {
-            int[] sack = new int[5];
-            Arrays.fill(sack, -1);
-            int idx = 0;
-            for (Integer seq : recentReceived) {
-                if (idx < 5 && seq > acknum) {
-                    sack[idx++] = seq;
-                }
-            }
-            // Note: You need to modify Packet.java to add setSack method
-            // For now, we'll encode SACK in payload
-            StringBuilder sackStr = new StringBuilder();
-            for (int i = 0; i < 5 && sack[i] != -1; i++) {
-                if (i > 0) sackStr.append(",");
-                sackStr.append(sack[i]);
+        if (isCorrupted(packet)) {
+            corruptedPackets++;
+            if (traceLevel >= 1) {
+                out.println(name + "_input: packet corrupted");
             }
-            if (sackStr.length() > 0) {
-                ack.setPayload("SACK:" + sackStr.toString());
-                checksum = calculateChecksum(-1, acknum, ack.getPayload());
-                ack.setChecksum(checksum);
+            
+            // The packet may have been data, so a receiver here may repeat
+            // its last ACK
+            if (receiving[entity] != null) {
+                receiving[entity].corruptedArrival();
             }
+            return;
         }
         
-        return ack;
+        if (packet.getSeqnum() != -1) {
+            receiving[entity].inputData(packet);
+        }
+        if (packet.getAcknum() != -1) {
+            sending[entity].inputAck(packet, packet.getSeqnum() == -1);
+            
+            // The ACK may have made room for layer 5 again
+            resumeLayer5(entity);
+        }
     }
 
-    // A_output - called when layer 5 has data to send
-    protected void aOutput(Message message) {
-        if (traceLevel >= 2) {
-            System.out.println("A_output: got message from layer 5: " + message.getData());
+    // Route an expired timer to the flow that started it
+    protected void timerInterrupt(int entity, int tag) {
+        if (tag == RETRANSMIT_TIMER) {
+            sending[entity].retransmitTimeout();
+        } else {
+            receiving[entity].ackTimeout();
         }
-        
-        if (protocolMode == STOP_AND_WAIT) {
-            aOutputStopAndWait(message);
-        } else if (protocolMode == SELECTIVE_REPEAT) {
-            aOutputSelectiveRepeat(message);
-        } else if (protocolMode == GBN_WITH_SACK) {
-            aOutputGBN(message);
+    }
+
+    // A_timerinterrupt - called when A's timer expires
+    protected void aTimerInterrupt() {
+        timerInterrupt(A, RETRANSMIT_TIMER);
+    }
+
+    // B_timerinterrupt - the delayed-ACK timer has run out
+    protected void bTimerInterrupt() {
+        timerInterrupt(B, ACK_TIMER);
+    }
+
+    // A_init - initialize A side
+    protected void aInit() {
+        init(A);
+    }
+
+    // B_init - initialize B side
+    protected void bInit() {
+        init(B);
+    }
+
+    protected void init(int entity) {
+        if (sending[entity] != null) {
+            sending[entity].initSender();
+        }
+        if (receiving[entity] != null) {
+            receiving[entity].initReceiver();
         }
     }
-    
-    // Stop-and-Wait A_output
-    private void aOutputStopAndWait(Message message) {
-        if (NextSeqNum == Base) {
-            // Can send immediately
-            Packet packet = makeDataPacket(NextSeqNum, message.getData());
-            senderBuffer.put(NextSeqNum, packet);
-            toLayer3(A, packet);
-            startTimer(A, RxmtInterval);
-            
-            rttStartTimes.put(NextSeqNum, getTime());
-            commStartTimes.put(NextSeqNum, getTime());
-            originalPacketsTransmitted++;
-            totalDataBytes += 12 + message.getData().length();
+
+    // Name of an entity in the trace: A and B, then the entity numbers
+    private static String entityName(int entity) {
+        return entity == A ? "A" : entity == B ? "B" : String.valueOf(entity);
+    }
+
+    // One direction of data transfer: a sender at src and a receiver at dst
+    private class Flow {
+        final int src;
+        final int dst;
+        final String sender;    // names used in the trace
+        final String receiver;
+        
+        // The flow in the other direction, whose ACKs this flow's data
+        // packets carry (duplex mode only)
+        Flow reverse;
+        
+        // Common variables
+        private int Base;
+        private int NextSeqNum;
+        private int ExpectedSeqNum;
+        private SenderWindow senderWindow;
+        private ReceiverBuffer receiverBuffer;
+        private MessageRing waitingQueue;  // -Dsendbuffer messages, default 50
+        
+        // Statistics
+        private int originalPacketsTransmitted = 0;
+        private int retransmissions = 0;
+        private int packetsToLayer5 = 0;
+        private int acksSent = 0;
+        private int piggybackedAcks = 0;
+        private double totalRTT = 0;
+        private int rttCount = 0;
+        private double totalCommTime = 0;
+        private int commTimeCount = 0;
+        private int totalDataBytes = 0;
+        private int totalGoodputBytes = 0;
+        
+        // Per-packet timers (-Dsrtimers=packet). The physical timer's
+        // expiry is NaN while it is not running
+        private DeadlineQueue packetTimers;
+        private double physicalDeadline = Double.NaN;
+        
+        // Fast retransmit state
+        private int dupAcks;
+        private boolean inRecovery;
+        private int recoveryPoint;
+        
+        // Congestion window (-Dcc=none|reno|delay), capped at WindowSize.
+        // Duplicate-ACK losses are signalled once until lossPoint is ACKed
+        private CongestionControl cc;
+        private boolean lossPending;
+        private int lossPoint;
+        private double windowSum = 0;
+        private int windowSamples = 0;
+        
+        // Delayed ACK state
+        private int pendingAcks;
+        private boolean ackTimerRunning;
+        
+        // Retransmission timeout, fixed at RxmtInterval or adaptive (-Drto).
+        // It doubles on each timeout, at most -Drtobackoff times in a row:
+        // by default 6, or 0 for a fixed RTO unless the link is crowded
+        private RtoEstimator rto;
+        
+        Flow(int src, int dst) {
+            this.src = src;
+            this.dst = dst;
+            sender = entityName(src);
+            receiver = entityName(dst);
+            sending[src] = this;
+            receiving[dst] = this;
+            boolean adaptive = System.getProperty("rto", "fixed").equals("adaptive");
+            rto = new RtoEstimator(RxmtInterval, adaptive,
+                                   Double.parseDouble(System.getProperty("rtomin", "1.0")),
+                                   Double.parseDouble(System.getProperty("rtomax", String.valueOf(64 * RxmtInterval))),
+                                   Integer.getInteger("rtobackoff", (adaptive || crowdedLink) ? 6 : 0));
+            cc = CongestionControl.forName(System.getProperty("cc", "none"), WindowSize, out);
+        }
+
+        // An ACK, pure or piggybacked on data, arrived at the sender
+        void inputAck(Packet packet, boolean pure) {
+            if (protocolMode == STOP_AND_WAIT) {
+                ackStopAndWait(packet);
+            } else if (protocolMode == SELECTIVE_REPEAT) {
+                ackSelectiveRepeat(packet, pure);
+            } else if (protocolMode == GBN_WITH_SACK) {
+                ackGBN(packet, pure);
+            }
+        }
+
+        // A data packet arrived at the receiver
+        void inputData(Packet packet) {
+            if (protocolMode == STOP_AND_WAIT) {
+                dataStopAndWait(packet);
+            } else if (protocolMode == SELECTIVE_REPEAT) {
+                dataSelectiveRepeat(packet);
+            } else if (protocolMode == GBN_WITH_SACK) {
+                dataGBN(packet);
+            }
+        }
+
+        // Send duplicate ACK for last correctly received in-order packet.
+        // With fast retransmit it only counts towards the threshold. In
+        // duplex mode the packet may have been a pure ACK, and the peer
+        // would take our reply for a loss, so nothing is sent: the reverse
+        // flow's data carries the current ACK anyway
+        void corruptedArrival() {
+            if (reverse != null) {
+                if (traceLevel >= 2) {
+                    out.println(receiver + "_input: corrupted packet not ACKed in duplex mode");
+                }
+                return;
+            }
+            if (ExpectedSeqNum > 0) {
+                Packet ack = sendAck();
+                
+                if (traceLevel >= 2) {
+                    out.println(receiver + "_input: sent duplicate ACK for " + ack.getAcknum());
+                }
+            }
+        }
+
+        // Send a data packet. In duplex mode it also carries the reverse
+        // flow's current ACK, stamped now so a retransmission never
+        // carries a stale one
+        private void sendData(Packet packet) {
+            sendData(packet, false);
+        }
+
+        private void sendData(Packet packet, boolean retransmission) {
+            if (reverse != null) {
+                packet = reverse.piggyback(packet);
+            }
+            toLayer3(src, packet, retransmission);
+        }
+
+        // A copy of a data packet going the other way with this flow's
+        // cumulative ACK and SACK blocks on it. Any delayed ACK goes with
+        // it, so no separate ACK is needed
+        private Packet piggyback(Packet data) {
+            if (packetsToLayer5 == 0) {
+                return data;  // nothing to acknowledge yet
+            }
             
-            NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+            Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
+            Packet packet = new Packet(data);
+            packet.setAcknum(ack.getAcknum());
+            if (ack.getSackBlockCount() > 0) {
+                packet.setSack(sackEdges, ack.getSackBlockCount());
+            }
+            packet.setChecksum(calculateChecksum(packet));
             
-            if (traceLevel >= 2) {
-                System.out.println("SAW A_output: sent packet " + packet.getSeqnum());
+            if (pendingAcks > 0) {
+                if (ackTimerRunning) {
+                    stopTimer(dst, ACK_TIMER);
+                    ackTimerRunning = false;
+                }
+                pendingAcks = 0;
+                piggybackedAcks++;
             }
-        } else {
-            // Must buffer
-            waitingQueue.offer(makeDataPacket(NextSeqNum, message.getData()));
-            NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+            return packet;
+        }
+        // Create ACK packet (with optional SACK for GBN mode)
+        Packet makeAckPacket(int acknum) {
+            Packet ack = new Packet(-1, acknum, 0);
+        
+            // Add SACK blocks for the packets buffered past acknum in GBN mode,
+            // and in SR so per-packet timers can stop for packets B holds
+            if ((protocolMode == GBN_WITH_SACK || perPacketTimers) && receiverBuffer != null) {
+                int blocks = receiverBuffer.sackBlocks((acknum + 1) % LimitSeqNo, LimitSeqNo,
+                                                       sackEdges, maxSackBlocks);
+                if (blocks > 0) {
+                    ack.setSack(sackEdges, blocks);
+                }
+            }
+        
+            ack.setChecksum(calculateChecksum(ack));
+            return ack;
+        }
+
+        // Called when layer 5 at the sender has data to send
+        void output(Message message) {
             if (traceLevel >= 2) {
-                System.out.println("SAW A_output: buffered message");
+                out.println(sender + "_output: got message from layer 5: " + message.getData());
+            }
+        
+            if (protocolMode == STOP_AND_WAIT) {
+                outputStopAndWait(message);
+            } else if (protocolMode == SELECTIVE_REPEAT) {
+                outputSelectiveRepeat(message);
+            } else if (protocolMode == GBN_WITH_SACK) {
+                outputGBN(message);
             }
         }
-    }
     
-    // Selective Repeat A_output
-    private void aOutputSelectiveRepeat(Message message) {
-        int seqnum = NextSeqNum;
-        
-        // Check if within window
-        if (isInSenderWindow(seqnum)) {
-            Packet packet = makeDataPacket(seqnum, message.getData());
-            senderBuffer.put(seqnum, packet);
-            toLayer3(A, packet);
+        // Stop-and-Wait A_output
+        private void outputStopAndWait(Message message) {
+            if (NextSeqNum == Base && waitingQueue.isEmpty()) {
+                // Can send immediately
+                Packet packet = makeDataPacket(NextSeqNum, message);
+                senderWindow.put(NextSeqNum, packet);
+                sendData(packet);
+                startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+            
+                senderWindow.putRttStart(NextSeqNum, getTime());
+                senderWindow.putCommStart(NextSeqNum, getTime());
+                originalPacketsTransmitted++;
+                totalDataBytes += 12 + message.getDataLength();
             
-            if (seqnum == Base) {
-                stopTimer(A);
-                startTimer(A, RxmtInterval);
+                NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+            
+                if (traceLevel >= 2) {
+                    out.println("SAW " + sender + "_output: sent packet " + packet.getSeqnum());
+                }
+            } else {
+                // Must buffer; the sequence number is assigned when it is sent
+                enqueue(message);
+                if (traceLevel >= 2) {
+                    out.println("SAW " + sender + "_output: buffered message");
+                }
             }
+        }
+    
+        // Selective Repeat A_output
+        private void outputSelectiveRepeat(Message message) {
+            int seqnum = NextSeqNum;
+        
+            // Check if within window, behind any messages already waiting
+            if (waitingQueue.isEmpty() && isInSenderWindow(seqnum)) {
+                Packet packet = makeDataPacket(seqnum, message);
+                senderWindow.put(seqnum, packet);
+                sendData(packet);
             
-            rttStartTimes.put(seqnum, getTime());
-            commStartTimes.put(seqnum, getTime());
-            originalPacketsTransmitted++;
-            totalDataBytes += 12 + message.getData().length();
+                if (perPacketTimers) {
+                    armPacketTimer(seqnum);
+                } else if (seqnum == Base) {
+                    stopTimer(src, RETRANSMIT_TIMER);
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                }
             
-            NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+                senderWindow.putRttStart(seqnum, getTime());
+                senderWindow.putCommStart(seqnum, getTime());
+                originalPacketsTransmitted++;
+                totalDataBytes += 12 + message.getDataLength();
             
-            if (traceLevel >= 2) {
-                System.out.println("SR A_output: sent packet " + seqnum);
-            }
-        } else {
-            // Buffer for later
-            if (waitingQueue.size() < 50) {
-                waitingQueue.offer(makeDataPacket(NextSeqNum, message.getData()));
                 NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+            
                 if (traceLevel >= 2) {
-                    System.out.println("SR A_output: buffered message, queue size: " + waitingQueue.size());
+                    out.println("SR " + sender + "_output: sent packet " + seqnum);
                 }
             } else {
-                System.err.println("SR A_output: Buffer full, dropping message");
-                System.exit(1);
+                // Buffer for later
+                enqueue(message);
+                if (traceLevel >= 2) {
+                    out.println("SR " + sender + "_output: buffered message, queue size: " + waitingQueue.size());
+                }
             }
         }
-    }
     
-    // GBN with SACK A_output
-    private void aOutputGBN(Message message) {
-        int seqnum = NextSeqNum;
+        // GBN with SACK A_output
+        private void outputGBN(Message message) {
+            int seqnum = NextSeqNum;
         
-        if (isInSenderWindow(seqnum)) {
-            Packet packet = makeDataPacket(seqnum, message.getData());
-            senderBuffer.put(seqnum, packet);
-            toLayer3(A, packet);
-            
-            if (Base == NextSeqNum) {
-                startTimer(A, RxmtInterval);
-            }
+            if (waitingQueue.isEmpty() && isInSenderWindow(seqnum)) {
+                Packet packet = makeDataPacket(seqnum, message);
+                senderWindow.put(seqnum, packet);
+                sendData(packet);
             
-            rttStartTimes.put(seqnum, getTime());
-            commStartTimes.put(seqnum, getTime());
-            originalPacketsTransmitted++;
-            totalDataBytes += 12 + message.getData().length();
+                if (Base == NextSeqNum) {
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                }
             
-            NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+                senderWindow.putRttStart(seqnum, getTime());
+                senderWindow.putCommStart(seqnum, getTime());
+                originalPacketsTransmitted++;
+                totalDataBytes += 12 + message.getDataLength();
             
-            if (traceLevel >= 2) {
-                System.out.println("GBN A_output: sent packet " + seqnum);
-            }
-        } else {
-            if (waitingQueue.size() < 50) {
-                waitingQueue.offer(makeDataPacket(NextSeqNum, message.getData()));
                 NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+            
                 if (traceLevel >= 2) {
-                    System.out.println("GBN A_output: buffered message");
+                    out.println("GBN " + sender + "_output: sent packet " + seqnum);
                 }
             } else {
-                System.err.println("GBN A_output: Buffer full");
-                System.exit(1);
+                enqueue(message);
+                if (traceLevel >= 2) {
+                    out.println("GBN " + sender + "_output: buffered message");
+                }
             }
         }
-    }
 
-    // A_input - called when ACK arrives at A
-    protected void aInput(Packet packet) {
-        if (traceLevel >= 2) {
-            System.out.println("A_input: got packet " + packet);
-        }
-        
-        if (isCorrupted(packet)) {
-            corruptedPackets++;
-            if (traceLevel >= 1) {
-                System.out.println("A_input: packet corrupted");
+        // Layer 5 is paused before the send buffer fills, so a full buffer
+        // here is a bug rather than a message to drop
+        private void enqueue(Message message) {
+            if (!waitingQueue.offer(message)) {
+                throw new IllegalStateException(sender + "_output: send buffer full, layer 5 should have been paused");
             }
-            return;
         }
-        
-        if (protocolMode == STOP_AND_WAIT) {
-            aInputStopAndWait(packet);
-        } else if (protocolMode == SELECTIVE_REPEAT) {
-            aInputSelectiveRepeat(packet);
-        } else if (protocolMode == GBN_WITH_SACK) {
-            aInputGBN(packet);
+
+        // Room left in the send buffer; at 0 the simulator pauses layer 5
+        int freeCapacity() {
+            return waitingQueue.remaining();
         }
-    }
     
-    // Stop-and-Wait A_input
-    private void aInputStopAndWait(Packet packet) {
-        int acknum = packet.getAcknum();
+        // Stop-and-Wait A_input
+        private void ackStopAndWait(Packet packet) {
+            int acknum = packet.getAcknum();
         
-        if (acknum == Base) {
-            // Correct ACK
-            stopTimer(A);
+            if (acknum == Base) {
+                // Correct ACK
+                stopTimer(src, RETRANSMIT_TIMER);
             
-            // Update RTT
-            if (rttStartTimes.containsKey(acknum)) {
-                double rtt = getTime() - rttStartTimes.remove(acknum);
-                totalRTT += rtt;
-                rttCount++;
-            }
+                // Update RTT
+                updateRto(sampleRtt(acknum), senderWindow.isRetransmitted(acknum));
             
-            // Update comm time
-            if (commStartTimes.containsKey(acknum)) {
-                double commTime = getTime() - commStartTimes.remove(acknum);
-                totalCommTime += commTime;
-                commTimeCount++;
-            }
+                // Update comm time
+                if (senderWindow.hasCommStart(acknum)) {
+                    double commTime = getTime() - senderWindow.removeCommStart(acknum);
+                    totalCommTime += commTime;
+                    commTimeCount++;
+                }
             
-            Base = (Base + 1) % LimitSeqNo;
+                Base = (Base + 1) % LimitSeqNo;
             
-            // Send next buffered packet if any
-            if (!waitingQueue.isEmpty() && Base == (NextSeqNum - waitingQueue.size() + LimitSeqNo) % LimitSeqNo) {
-                Packet next = waitingQueue.poll();
-                senderBuffer.put(next.getSeqnum(), next);
-                toLayer3(A, next);
-                startTimer(A, RxmtInterval);
+                // Send next buffered packet if any
+                if (!waitingQueue.isEmpty() && NextSeqNum == Base) {
+                    Packet next = makeDataPacket(NextSeqNum, waitingQueue.poll());
+                    NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+                    senderWindow.put(next.getSeqnum(), next);
+                    sendData(next);
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
                 
-                rttStartTimes.put(next.getSeqnum(), getTime());
-                commStartTimes.put(next.getSeqnum(), getTime());
-                originalPacketsTransmitted++;
+                    senderWindow.putRttStart(next.getSeqnum(), getTime());
+                    senderWindow.putCommStart(next.getSeqnum(), getTime());
+                    originalPacketsTransmitted++;
                 
+                    if (traceLevel >= 2) {
+                        out.println("SAW " + sender + "_input: sent buffered packet " + next.getSeqnum());
+                    }
+                }
+            } else {
+                // Duplicate or wrong ACK - ignore in Stop-and-Wait
                 if (traceLevel >= 2) {
-                    System.out.println("SAW A_input: sent buffered packet " + next.getSeqnum());
+                    out.println("SAW " + sender + "_input: ignoring ACK for " + acknum);
                 }
             }
-        } else {
-            // Duplicate or wrong ACK - ignore in Stop-and-Wait
-            if (traceLevel >= 2) {
-                System.out.println("SAW A_input: ignoring ACK for " + acknum);
-            }
         }
-    }
     
-    // Selective Repeat A_input
-    private void aInputSelectiveRepeat(Packet packet) {
-        int acknum = packet.getAcknum();
-        
-        // Cumulative ACK
-        if (isInSenderWindow(acknum) || acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
-            if (acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
-                // Duplicate ACK - retransmit base
-                if (senderBuffer.containsKey(Base)) {
-                    toLayer3(A, senderBuffer.get(Base));
-                    retransmissions++;
-                    totalDataBytes += 12 + senderBuffer.get(Base).getPayload().length();
-                    stopTimer(A);
-                    startTimer(A, RxmtInterval);
+        // Selective Repeat A_input
+        private void ackSelectiveRepeat(Packet packet, boolean pure) {
+            int acknum = packet.getAcknum();
+        
+            if (perPacketTimers) {
+                mergeSack(packet, "SR");
+            }
+        
+            // Cumulative ACK
+            if (isOutstanding(acknum) || acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
+                if (acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
+                    // Duplicate ACK - retransmit base (a piggybacked ACK only repeats
+                    // the last one, so it is no sign of loss)
+                    if (pure && fastRetransmitDue() && senderWindow.contains(Base)) {
+                        retransmit(Base);
+                        signalLoss();
+                        if (perPacketTimers) {
+                            armPacketTimer(Base);
+                        } else {
+                            stopTimer(src, RETRANSMIT_TIMER);
+                            startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                        }
                     
-                    if (traceLevel >= 1) {
-                        System.out.println("SR A_input: duplicate ACK, retransmitting " + Base);
+                        if (traceLevel >= 1) {
+                            out.println("SR " + sender + "_input: duplicate ACK, retransmitting " + Base);
+                        }
                     }
-                }
-            } else {
-                // New cumulative ACK
-                int oldBase = Base;
+                } else {
+                    // New cumulative ACK
+                    int oldBase = Base;
                 
-                // Mark all packets up to acknum as ACKed
-                while (Base != (acknum + 1) % LimitSeqNo) {
-                    if (rttStartTimes.containsKey(Base)) {
-                        double rtt = getTime() - rttStartTimes.remove(Base);
-                        totalRTT += rtt;
-                        rttCount++;
+                    // Mark all packets up to acknum as ACKed
+                    double newestRtt = Double.NaN;
+                    boolean coversRetransmission = false;
+                    while (Base != (acknum + 1) % LimitSeqNo) {
+                        newestRtt = sampleRtt(Base);
+                        coversRetransmission |= senderWindow.isRetransmitted(Base);
+                        if (senderWindow.hasCommStart(Base)) {
+                            double commTime = getTime() - senderWindow.removeCommStart(Base);
+                            totalCommTime += commTime;
+                            commTimeCount++;
+                        }
+                        senderWindow.remove(Base);
+                        if (perPacketTimers) {
+                            senderWindow.clearSacked(Base);
+                            packetTimers.cancel(Base);
+                        }
+                        Base = (Base + 1) % LimitSeqNo;
                     }
-                    if (commStartTimes.containsKey(Base)) {
-                        double commTime = getTime() - commStartTimes.remove(Base);
-                        totalCommTime += commTime;
-                        commTimeCount++;
+                    updateRto(newestRtt, coversRetransmission);
+                    congestionAck((Base - oldBase + LimitSeqNo) % LimitSeqNo, newestRtt, coversRetransmission);
+                
+                    // A partial ACK in recovery points at the next hole
+                    if (partialAck() && senderWindow.contains(Base)
+                            && !senderWindow.isRetransmitted(Base)) {
+                        retransmit(Base);
+                        if (perPacketTimers) {
+                            packetTimers.arm(Base, getTime() + rto.getRto());
+                        }
+                    
+                        if (traceLevel >= 1) {
+                            out.println("SR " + sender + "_input: partial ACK, retransmitting " + Base);
+                        }
                     }
-                    senderBuffer.remove(Base);
-                    ackedPackets.add(Base);
-                    Base = (Base + 1) % LimitSeqNo;
-                }
                 
-                stopTimer(A);
-                if (!senderBuffer.isEmpty() && senderBuffer.containsKey(Base)) {
-                    startTimer(A, RxmtInterval);
-                }
+                    if (perPacketTimers) {
+                        rearmPhysicalTimer();
+                    } else {
+                        stopTimer(src, RETRANSMIT_TIMER);
+                        if (senderWindow.contains(Base)) {
+                            startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                        }
+                    }
                 
-                // Send buffered packets
-                while (!waitingQueue.isEmpty() && isInSenderWindow(NextSeqNum - waitingQueue.size())) {
-                    Packet pkt = waitingQueue.poll();
-                    int seq = pkt.getSeqnum();
-                    senderBuffer.put(seq, pkt);
-                    toLayer3(A, pkt);
+                    // Send buffered packets
+                    while (!waitingQueue.isEmpty() && isInSenderWindow(NextSeqNum)) {
+                        int seq = NextSeqNum;
+                        Packet pkt = makeDataPacket(seq, waitingQueue.poll());
+                        NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+                        senderWindow.put(seq, pkt);
+                        sendData(pkt);
+                        if (perPacketTimers) {
+                            armPacketTimer(seq);
+                        } else if (seq == Base) {
+                            startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                        }
                     
-                    rttStartTimes.put(seq, getTime());
-                    commStartTimes.put(seq, getTime());
-                    originalPacketsTransmitted++;
-                    totalDataBytes += 12 + pkt.getPayload().length();
+                        senderWindow.putRttStart(seq, getTime());
+                        senderWindow.putCommStart(seq, getTime());
+                        originalPacketsTransmitted++;
+                        totalDataBytes += 12 + pkt.getPayloadLength();
                     
-                    if (traceLevel >= 2) {
-                        System.out.println("SR A_input: sent buffered packet " + seq);
+                        if (traceLevel >= 2) {
+                            out.println("SR " + sender + "_input: sent buffered packet " + seq);
+                        }
                     }
-                }
                 
-                if (traceLevel >= 2) {
-                    System.out.println("SR A_input: cumulative ACK moved window from " + oldBase + " to " + Base);
+                    if (traceLevel >= 2) {
+                        out.println("SR " + sender + "_input: cumulative ACK moved window from " + oldBase + " to " + Base);
+                    }
                 }
             }
         }
-    }
     
-    // GBN with SACK A_input
-    private void aInputGBN(Packet packet) {
-        int acknum = packet.getAcknum();
-        
-        // Process SACK info if present
-        if (packet.getPayload() != null && packet.getPayload().startsWith("SACK:")) {
-            String sackInfo = packet.getPayload().substring(5);
-            if (!sackInfo.isEmpty()) {
-                String[] sacks = sackInfo.split(",");
-                for (String s : sacks) {
-                    try {
-                        int sackNum = Integer.parseInt(s);
-                        sackedPackets.add(sackNum);
-                        if (traceLevel >= 2) {
-                            System.out.println("GBN A_input: SACK for " + sackNum);
+        // GBN with SACK A_input
+        private void ackGBN(Packet packet, boolean pure) {
+            int acknum = packet.getAcknum();
+        
+            mergeSack(packet, "GBN");
+        
+            if (isOutstanding(acknum) || acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
+                if (acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
+                    // Duplicate ACK - retransmit the holes, as for SR
+                    if (pure && fastRetransmitDue()) {
+                        stopTimer(src, RETRANSMIT_TIMER);
+                        if (retransmitHoles(false)) {
+                            signalLoss();
+                            startTimer(src, RETRANSMIT_TIMER, rto.getRto());
                         }
-                    } catch (NumberFormatException e) {
-                        // Ignore invalid SACK
                     }
-                }
-            }
-        }
-        
-        if (acknum >= Base || acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
-            if (acknum == (Base - 1 + LimitSeqNo) % LimitSeqNo) {
-                // Duplicate ACK - retransmit all unSACKed packets
-                stopTimer(A);
-                boolean anyRetransmitted = false;
-                
-                for (int seq = Base; seq != NextSeqNum; seq = (seq + 1) % LimitSeqNo) {
-                    if (!sackedPackets.contains(seq) && senderBuffer.containsKey(seq)) {
-                        toLayer3(A, senderBuffer.get(seq));
-                        retransmissions++;
-                        totalDataBytes += 12 + senderBuffer.get(seq).getPayload().length();
-                        anyRetransmitted = true;
-                        
-                        if (traceLevel >= 1) {
-                            System.out.println("GBN A_input: retransmitting unSACKed packet " + seq);
+                } else {
+                    // Cumulative ACK
+                    int oldBase = Base;
+                    double newestRtt = Double.NaN;
+                    boolean coversRetransmission = false;
+                    while (Base != (acknum + 1) % LimitSeqNo) {
+                        newestRtt = sampleRtt(Base);
+                        coversRetransmission |= senderWindow.isRetransmitted(Base);
+                        if (senderWindow.hasCommStart(Base)) {
+                            double commTime = getTime() - senderWindow.removeCommStart(Base);
+                            totalCommTime += commTime;
+                            commTimeCount++;
                         }
+                        senderWindow.remove(Base);
+                        senderWindow.clearSacked(Base);
+                        Base = (Base + 1) % LimitSeqNo;
                     }
-                }
+                    updateRto(newestRtt, coversRetransmission);
+                    congestionAck((Base - oldBase + LimitSeqNo) % LimitSeqNo, newestRtt, coversRetransmission);
                 
-                if (anyRetransmitted) {
-                    startTimer(A, RxmtInterval);
-                }
-            } else {
-                // Cumulative ACK
-                while (Base != (acknum + 1) % LimitSeqNo) {
-                    if (rttStartTimes.containsKey(Base)) {
-                        double rtt = getTime() - rttStartTimes.remove(Base);
-                        totalRTT += rtt;
-                        rttCount++;
-                    }
-                    if (commStartTimes.containsKey(Base)) {
-                        double commTime = getTime() - commStartTimes.remove(Base);
-                        totalCommTime += commTime;
-                        commTimeCount++;
+                    // A partial ACK in recovery: resend holes the SACKs have
+                    // revealed since recovery started
+                    if (partialAck()) {
+                        retransmitHoles(true);
                     }
-                    senderBuffer.remove(Base);
-                    sackedPackets.remove(Base);
-                    Base = (Base + 1) % LimitSeqNo;
-                }
                 
-                stopTimer(A);
-                if (Base != NextSeqNum) {
-                    startTimer(A, RxmtInterval);
-                }
+                    stopTimer(src, RETRANSMIT_TIMER);
+                    if (Base != NextSeqNum) {
+                        startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                    }
                 
-                // Send buffered packets
-                while (!waitingQueue.isEmpty() && isInSenderWindow(NextSeqNum - waitingQueue.size())) {
-                    Packet pkt = waitingQueue.poll();
-                    senderBuffer.put(pkt.getSeqnum(), pkt);
-                    toLayer3(A, pkt);
+                    // Send buffered packets
+                    while (!waitingQueue.isEmpty() && isInSenderWindow(NextSeqNum)) {
+                        Packet pkt = makeDataPacket(NextSeqNum, waitingQueue.poll());
+                        NextSeqNum = (NextSeqNum + 1) % LimitSeqNo;
+                        senderWindow.put(pkt.getSeqnum(), pkt);
+                        sendData(pkt);
+                        if (pkt.getSeqnum() == Base) {
+                            startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                        }
                     
-                    rttStartTimes.put(pkt.getSeqnum(), getTime());
-                    commStartTimes.put(pkt.getSeqnum(), getTime());
-                    originalPacketsTransmitted++;
-                    totalDataBytes += 12 + pkt.getPayload().length();
+                        senderWindow.putRttStart(pkt.getSeqnum(), getTime());
+                        senderWindow.putCommStart(pkt.getSeqnum(), getTime());
+                        originalPacketsTransmitted++;
+                        totalDataBytes += 12 + pkt.getPayloadLength();
+                    }
                 }
             }
         }
-    }
 
-    // A_timerinterrupt - called when A's timer expires
-    protected void aTimerInterrupt() {
-        if (traceLevel >= 2) {
-            System.out.println("A_timerinterrupt: timer expired");
-        }
+        // Called when the retransmission timer expires
+        void retransmitTimeout() {
+            if (traceLevel >= 2) {
+                out.println(sender + "_timerinterrupt: timer expired");
+            }
+        
+            rto.backoff();
+            dupAcks = 0;
+            inRecovery = false;
+            int window = cc.getWindow();
+            cc.onTimeout();
+            lossPending = true;
+            lossPoint = NextSeqNum;
+            traceWindow(window);
         
-        if (protocolMode == STOP_AND_WAIT) {
-            // Retransmit single packet
-            if (senderBuffer.containsKey(Base)) {
-                toLayer3(A, senderBuffer.get(Base));
-                startTimer(A, RxmtInterval);
-                retransmissions++;
-                totalDataBytes += 12 + senderBuffer.get(Base).getPayload().length();
+            if (protocolMode == STOP_AND_WAIT) {
+                // Retransmit single packet
+                if (senderWindow.contains(Base)) {
+                    retransmit(Base);
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
                 
-                // Remove from RTT calculation
-                rttStartTimes.remove(Base);
+                    // Remove from RTT calculation
+                    senderWindow.removeRttStart(Base);
+                
+                    if (traceLevel >= 1) {
+                        out.println("SAW timeout: retransmitting packet " + Base);
+                    }
+                }
+            } else if (perPacketTimers) {
+                // Retransmit every packet whose own timer has run out
+                physicalDeadline = Double.NaN;
+                while (!packetTimers.isEmpty() && packetTimers.peekDeadline() <= getTime() + 1e-9) {
+                    int seq = packetTimers.poll();
+                    if (!senderWindow.contains(seq) || senderWindow.isSacked(seq)) {
+                        continue;
+                    }
+                    retransmit(seq);
+                    senderWindow.removeRttStart(seq);
+                    armPacketTimer(seq);
                 
-                if (traceLevel >= 1) {
-                    System.out.println("SAW timeout: retransmitting packet " + Base);
+                    if (traceLevel >= 1) {
+                        out.println("SR timeout: retransmitting packet " + seq);
+                    }
                 }
-            }
-        } else if (protocolMode == SELECTIVE_REPEAT) {
-            // Retransmit only base packet
-            if (senderBuffer.containsKey(Base)) {
-                toLayer3(A, senderBuffer.get(Base));
-                startTimer(A, RxmtInterval);
-                retransmissions++;
-                totalDataBytes += 12 + senderBuffer.get(Base).getPayload().length();
+                rearmPhysicalTimer();
+            } else if (protocolMode == SELECTIVE_REPEAT) {
+                // Retransmit only base packet
+                if (senderWindow.contains(Base)) {
+                    retransmit(Base);
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
                 
-                // Remove from RTT calculation
-                rttStartTimes.remove(Base);
+                    // Remove from RTT calculation
+                    senderWindow.removeRttStart(Base);
                 
-                if (traceLevel >= 1) {
-                    System.out.println("SR timeout: retransmitting packet " + Base);
+                    if (traceLevel >= 1) {
+                        out.println("SR timeout: retransmitting packet " + Base);
+                    }
                 }
-            }
-        } else if (protocolMode == GBN_WITH_SACK) {
-            // Retransmit all unACKed, unSACKed packets
-            boolean anyRetransmitted = false;
-            for (int seq = Base; seq != NextSeqNum; seq = (seq + 1) % LimitSeqNo) {
-                if (!sackedPackets.contains(seq) && senderBuffer.containsKey(seq)) {
-                    toLayer3(A, senderBuffer.get(seq));
-                    retransmissions++;
-                    totalDataBytes += 12 + senderBuffer.get(seq).getPayload().length();
-                    anyRetransmitted = true;
+            } else if (protocolMode == GBN_WITH_SACK) {
+                // Retransmit all unACKed, unSACKed packets
+                boolean anyRetransmitted = false;
+                for (int seq = Base; seq != NextSeqNum; seq = (seq + 1) % LimitSeqNo) {
+                    if (!senderWindow.isSacked(seq) && senderWindow.contains(seq)) {
+                        retransmit(seq);
+                        anyRetransmitted = true;
                     
-                    // Remove from RTT calculation
-                    rttStartTimes.remove(seq);
+                        // Remove from RTT calculation
+                        senderWindow.removeRttStart(seq);
                     
-                    if (traceLevel >= 1) {
-                        System.out.println("GBN timeout: retransmitting packet " + seq);
+                        if (traceLevel >= 1) {
+                            out.println("GBN timeout: retransmitting packet " + seq);
+                        }
                     }
                 }
-            }
             
-            if (anyRetransmitted) {
-                startTimer(A, RxmtInterval);
+                if (anyRetransmitted) {
+                    startTimer(src, RETRANSMIT_TIMER, rto.getRto());
+                }
             }
         }
-    }
 
-    // A_init - initialize A side
-    protected void aInit() {
-        Base = FirstSeqNo;
-        NextSeqNum = FirstSeqNo;
-        senderBuffer = new HashMap<>();
-        waitingQueue = new LinkedList<>();
-        rttStartTimes = new HashMap<>();
-        commStartTimes = new HashMap<>();
-        ackedPackets = new HashSet<>();
-        
-        if (protocolMode == GBN_WITH_SACK) {
-            sackedPackets = new HashSet<>();
-        }
-        
-        System.out.println("A_init: Protocol mode = " + 
-            (protocolMode == STOP_AND_WAIT ? "Stop-and-Wait" : 
-             protocolMode == SELECTIVE_REPEAT ? "Selective Repeat" : "GBN with SACK"));
-        System.out.println("A_init: Window size = " + WindowSize);
-    }
-
-    // B_input - called when packet arrives at B
-    protected void bInput(Packet packet) {
-        if (traceLevel >= 2) {
-            System.out.println("B_input: got packet " + packet);
+        // Feed the congestion controller from an ACK that moved Base, with
+        // the same Karn's rule filter as the RTO estimator
+        private void congestionAck(int acked, double newestRtt, boolean coversRetransmission) {
+            if (lossPending && (Base == lossPoint || !isOutstanding(lossPoint))) {
+                lossPending = false;
+            }
+            int window = cc.getWindow();
+            cc.onAck(acked, coversRetransmission ? Double.NaN : newestRtt);
+            traceWindow(window);
+        
+            windowSum += cc.getWindow();
+            windowSamples++;
+        }
+    
+        // Tell the congestion controller about a loss found by duplicate
+        // ACKs, unless one was already signalled for this window of data
+        private void signalLoss() {
+            if (lossPending) {
+                return;
+            }
+            lossPending = true;
+            lossPoint = NextSeqNum;
+            int window = cc.getWindow();
+            cc.onLoss();
+            traceWindow(window);
+        }
+    
+        private void traceWindow(int oldWindow) {
+            if (traceLevel >= 2 && cc.getWindow() != oldWindow) {
+                out.println(sender + ": congestion window " + oldWindow + " -> " + cc.getWindow());
+            }
         }
+    
+        // Count a duplicate ACK and say whether it should trigger a
+        // retransmission. Without a threshold every duplicate does; with one,
+        // only the Nth, which also starts recovery
+        private boolean fastRetransmitDue() {
+            if (dupAckThreshold == 0) {
+                return true;
+            }
+            if (inRecovery || Base == NextSeqNum || ++dupAcks < dupAckThreshold) {
+                return false;
+            }
+            inRecovery = true;
+            recoveryPoint = NextSeqNum;
         
-        if (isCorrupted(packet)) {
-            corruptedPackets++;
             if (traceLevel >= 1) {
-                System.out.println("B_input: packet corrupted");
+                out.println(sender + "_input: " + dupAcks + " duplicate ACKs, fast recovery until " + recoveryPoint);
             }
+            return true;
+        }
+    
+        // Called after an ACK has moved Base. Returns true for a partial ACK,
+        // one that leaves part of what was outstanding at the loss unACKed
+        private boolean partialAck() {
+            dupAcks = 0;
+            if (!inRecovery) {
+                return false;
+            }
+            if (Base == recoveryPoint || !isOutstanding(recoveryPoint)) {
+                inRecovery = false;
             
-            // Send duplicate ACK for last correctly received in-order packet
-            if (ExpectedSeqNum > 0) {
-                Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
-                toLayer3(B, ack);
-                acksSent++;
-                totalDataBytes += 12;
-                
                 if (traceLevel >= 2) {
-                    System.out.println("B_input: sent duplicate ACK for " + ack.getAcknum());
+                    out.println(sender + "_input: recovery complete at " + Base);
                 }
+                return false;
             }
-            return;
+            return true;
         }
+    
+        // Retransmit the holes: Base and any unSACKed packet below the highest
+        // SACKed one. With freshOnly, packets already resent are skipped
+        private boolean retransmitHoles(boolean freshOnly) {
+            boolean anyRetransmitted = false;
+        
+            int holeEnd = (Base + 1) % LimitSeqNo;
+            for (int seq = holeEnd; seq != NextSeqNum; seq = (seq + 1) % LimitSeqNo) {
+                if (senderWindow.isSacked(seq)) {
+                    holeEnd = seq;
+                }
+            }
         
-        if (protocolMode == STOP_AND_WAIT) {
-            bInputStopAndWait(packet);
-        } else if (protocolMode == SELECTIVE_REPEAT) {
-            bInputSelectiveRepeat(packet);
-        } else if (protocolMode == GBN_WITH_SACK) {
-            bInputGBN(packet);
+            for (int seq = Base; seq != holeEnd && seq != NextSeqNum; seq = (seq + 1) % LimitSeqNo) {
+                if (!senderWindow.isSacked(seq) && senderWindow.contains(seq)
+                        && !(freshOnly && senderWindow.isRetransmitted(seq))) {
+                    retransmit(seq);
+                    anyRetransmitted = true;
+                
+                    if (traceLevel >= 1) {
+                        out.println("GBN " + sender + "_input: retransmitting unSACKed packet " + seq);
+                    }
+                }
+            }
+            return anyRetransmitted;
+        }
+    
+        // Merge the SACK blocks of an ACK into the scoreboard. SACKed packets
+        // need no timer of their own any more
+        private void mergeSack(Packet packet, String mode) {
+            for (int i = 0; i < packet.getSackBlockCount(); i++) {
+                int left = packet.getSackLeft(i);
+                int right = packet.getSackRight(i);
+                if (left < 0 || left >= LimitSeqNo || right < 0 || right >= LimitSeqNo
+                        || !isOutstanding(left) || (right != NextSeqNum && !isOutstanding(right))) {
+                    continue;  // stale or malformed block
+                }
+                for (int seq = left; seq != right; seq = (seq + 1) % LimitSeqNo) {
+                    senderWindow.setSacked(seq);
+                    if (packetTimers != null) {
+                        packetTimers.cancel(seq);
+                    }
+                }
+                if (traceLevel >= 2) {
+                    out.println(mode + " " + sender + "_input: SACK for [" + left + ", " + right + ")");
+                }
+            }
+            if (packetTimers != null) {
+                rearmPhysicalTimer();
+            }
         }
-    }
     
-    // Stop-and-Wait B_input
-    private void bInputStopAndWait(Packet packet) {
-        int seqnum = packet.getSeqnum();
+        // (Re)start the logical timer of one packet
+        private void armPacketTimer(int seq) {
+            packetTimers.arm(seq, getTime() + rto.getRto());
+            rearmPhysicalTimer();
+        }
+    
+        // Keep the A timer set for the earliest logical deadline
+        private void rearmPhysicalTimer() {
+            double earliest = packetTimers.isEmpty() ? Double.NaN : packetTimers.peekDeadline();
+            if (earliest == physicalDeadline) {
+                return;
+            }
+            if (!Double.isNaN(physicalDeadline)) {
+                stopTimer(src, RETRANSMIT_TIMER);
+            }
+            physicalDeadline = earliest;
+            if (!Double.isNaN(earliest)) {
+                startTimer(src, RETRANSMIT_TIMER, Math.max(0, earliest - getTime()));
+            }
+        }
+    
+        // Resend a buffered packet; its next ACK is no longer a valid RTT sample
+        private void retransmit(int seq) {
+            Packet packet = senderWindow.get(seq);
+            sendData(packet, true);
+            retransmissions++;
+            totalDataBytes += 12 + packet.getPayloadLength();
+            senderWindow.setRetransmitted(seq);
+        }
+    
+        // Record the RTT of an acknowledged packet, if it still has a sample,
+        // and return it (NaN if none)
+        private double sampleRtt(int seq) {
+            if (!senderWindow.hasRttStart(seq)) {
+                return Double.NaN;
+            }
+            double rtt = getTime() - senderWindow.removeRttStart(seq);
+            totalRTT += rtt;
+            rttCount++;
+            return rtt;
+        }
+
+        // Feed the RTO estimator from an ACK that moved Base. Following Karn's
+        // rule no sample is taken if the ACK covers a retransmitted packet (the
+        // older packets' samples then include the time spent recovering the
+        // hole), and any timeout backoff stays until a valid sample ends it
+        private void updateRto(double newestRtt, boolean coversRetransmission) {
+            if (!coversRetransmission && !Double.isNaN(newestRtt)) {
+                rto.sample(newestRtt);
+            }
+        }
+
+        // Initialize the sending side
+        void initSender() {
+            Base = FirstSeqNo;
+            NextSeqNum = FirstSeqNo;
+            senderWindow = new SenderWindow(LimitSeqNo);
+            if (perPacketTimers) {
+                packetTimers = new DeadlineQueue(LimitSeqNo);
+            }
+            waitingQueue = new MessageRing(Math.max(1, Integer.getInteger("sendbuffer", 50)));
         
-        if (seqnum == ExpectedSeqNum) {
-            // In-order packet
-            toLayer5(packet.getPayload());
-            packetsToLayer5++;
-            totalGoodputBytes += packet.getPayload().length();
+            out.println(sender + "_init: Protocol mode = " + 
+                (protocolMode == STOP_AND_WAIT ? "Stop-and-Wait" : 
+                 protocolMode == SELECTIVE_REPEAT ? "Selective Repeat" : "GBN with SACK"));
+            out.println(sender + "_init: Window size = " + WindowSize);
+        }
+
+        // Stop-and-Wait B_input
+        private void dataStopAndWait(Packet packet) {
+            int seqnum = packet.getSeqnum();
+        
+            if (seqnum == ExpectedSeqNum) {
+                // In-order packet
+                toLayer5(dst, packet.getPayload());
+                packetsToLayer5++;
+                totalGoodputBytes += packet.getPayloadLength();
             
-            ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
+                ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
             
-            // Send ACK
-            Packet ack = makeAckPacket(seqnum);
-            toLayer3(B, ack);
-            acksSent++;
-            totalDataBytes += 12;
+                // Send ACK
+                if (!deferAck()) {
+                    sendAck();
+                
+                    if (traceLevel >= 2) {
+                        out.println("SAW " + receiver + "_input: delivered packet " + seqnum + ", sent ACK");
+                    }
+                }
+            } else {
+                // Out of order or duplicate - send duplicate ACK
+                sendAck();
             
-            if (traceLevel >= 2) {
-                System.out.println("SAW B_input: delivered packet " + seqnum + ", sent ACK");
+                if (traceLevel >= 2) {
+                    out.println("SAW " + receiver + "_input: out-of-order/duplicate packet " + seqnum + 
+                                     ", expected " + ExpectedSeqNum);
+                }
             }
-        } else {
-            // Out of order or duplicate - send duplicate ACK
-            Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
-            toLayer3(B, ack);
-            acksSent++;
-            totalDataBytes += 12;
+        }
+    
+        // Selective Repeat B_input
+        private void dataSelectiveRepeat(Packet packet) {
+            int seqnum = packet.getSeqnum();
+            boolean ackNow = true;
+        
+            if (isInReceiverWindow(seqnum)) {
+                if (seqnum == ExpectedSeqNum) {
+                    // In-order packet
+                    toLayer5(dst, packet.getPayload());
+                    packetsToLayer5++;
+                    totalGoodputBytes += packet.getPayloadLength();
+                    ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
+                
+                    // Check buffer for subsequent in-order packets
+                    int runLength = receiverBuffer.drain(ExpectedSeqNum);
+                    Packet[] run = receiverBuffer.getRun();
+                    toLayer5(dst, run, runLength);
+                    for (int i = 0; i < runLength; i++) {
+                        Packet buffered = run[i];
+                        packetsToLayer5++;
+                        totalGoodputBytes += buffered.getPayloadLength();
+                        ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
+                    
+                        if (traceLevel >= 2) {
+                            out.println("SR " + receiver + "_input: delivered buffered packet " + 
+                                             (ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
+                        }
+                    }
+                
+                    if (traceLevel >= 2) {
+                        out.println("SR " + receiver + "_input: delivered packet(s), new expected = " + ExpectedSeqNum);
+                    }
+                
+                    // An arrival that fills a gap is ACKed at once
+                    ackNow = runLength > 0 || !deferAck();
+                } else {
+                    // Out-of-order but in window - buffer it
+                    if (receiverBuffer.put(seqnum, packet)) {
+                        if (traceLevel >= 2) {
+                            out.println("SR " + receiver + "_input: buffered out-of-order packet " + seqnum);
+                        }
+                    }
+                }
+            }
+        
+            // Send cumulative ACK, unless it is being delayed
+            if (ackNow) {
+                Packet ack = sendAck();
             
-            if (traceLevel >= 2) {
-                System.out.println("SAW B_input: out-of-order/duplicate packet " + seqnum + 
-                                 ", expected " + ExpectedSeqNum);
+                if (traceLevel >= 2) {
+                    out.println("SR " + receiver + "_input: sent cumulative ACK for " + ack.getAcknum());
+                }
             }
         }
-    }
     
-    // Selective Repeat B_input
-    private void bInputSelectiveRepeat(Packet packet) {
-        int seqnum = packet.getSeqnum();
+        // GBN with SACK B_input
+        private void dataGBN(Packet packet) {
+            int seqnum = packet.getSeqnum();
+            boolean ackNow = true;
         
-        if (isInReceiverWindow(seqnum)) {
             if (seqnum == ExpectedSeqNum) {
                 // In-order packet
-                toLayer5(packet.getPayload());
+                toLayer5(dst, packet.getPayload());
                 packetsToLayer5++;
-                totalGoodputBytes += packet.getPayload().length();
+                totalGoodputBytes += packet.getPayloadLength();
                 ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
-                
-                // Check buffer for subsequent in-order packets
-                while (receiverBuffer.containsKey(ExpectedSeqNum)) {
-                    Packet buffered = receiverBuffer.remove(ExpectedSeqNum);
-                    toLayer5(buffered.getPayload());
+            
+                // Check buffer for subsequent packets
+                int runLength = receiverBuffer.drain(ExpectedSeqNum);
+                Packet[] run = receiverBuffer.getRun();
+                toLayer5(dst, run, runLength);
+                for (int i = 0; i < runLength; i++) {
+                    Packet buffered = run[i];
                     packetsToLayer5++;
-                    totalGoodputBytes += buffered.getPayload().length();
+                    totalGoodputBytes += buffered.getPayloadLength();
                     ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
-                    
-                    if (traceLevel >= 2) {
-                        System.out.println("SR B_input: delivered buffered packet " + 
-                                         (ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
-                    }
                 }
-                
+            
                 if (traceLevel >= 2) {
-                    System.out.println("SR B_input: delivered packet(s), new expected = " + ExpectedSeqNum);
+                    out.println("GBN " + receiver + "_input: delivered packet(s), new expected = " + ExpectedSeqNum);
                 }
-            } else {
-                // Out-of-order but in window - buffer it
-                if (!receiverBuffer.containsKey(seqnum)) {
-                    receiverBuffer.put(seqnum, packet);
+            
+                // An arrival that fills a gap is ACKed at once
+                ackNow = runLength > 0 || !deferAck();
+            } else if (isInReceiverWindow(seqnum)) {
+                // Out-of-order but in window - buffer for SACK
+                if (receiverBuffer.put(seqnum, packet)) {
                     if (traceLevel >= 2) {
-                        System.out.println("SR B_input: buffered out-of-order packet " + seqnum);
+                        out.println("GBN " + receiver + "_input: buffered packet " + seqnum + " for SACK");
                     }
                 }
             }
-        }
         
-        // Always send cumulative ACK
-        Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
-        toLayer3(B, ack);
-        acksSent++;
-        totalDataBytes += 12;
-        
-        if (traceLevel >= 2) {
-            System.out.println("SR B_input: sent cumulative ACK for " + ack.getAcknum());
+            // Send cumulative ACK with SACK, unless it is being delayed
+            if (ackNow) {
+                Packet ack = sendAck();
+            
+                if (traceLevel >= 2) {
+                    out.println("GBN " + receiver + "_input: sent ACK for " + ack.getAcknum() + 
+                                     " with " + ack.getSackBlockCount() + " SACK block(s)");
+                }
+            }
         }
-    }
     
-    // GBN with SACK B_input
-    private void bInputGBN(Packet packet) {
-        int seqnum = packet.getSeqnum();
-        
-        // Update recent received list for SACK
-        if (!recentReceived.contains(seqnum)) {
-            recentReceived.add(seqnum);
-            if (recentReceived.size() > 5) {
-                recentReceived.removeFirst();
+        // Send the cumulative ACK for everything delivered so far, which also
+        // covers any delayed ACKs
+        private Packet sendAck() {
+            if (ackTimerRunning) {
+                stopTimer(dst, ACK_TIMER);
+                ackTimerRunning = false;
             }
-        }
+            pendingAcks = 0;
         
-        if (seqnum == ExpectedSeqNum) {
-            // In-order packet
-            toLayer5(packet.getPayload());
-            packetsToLayer5++;
-            totalGoodputBytes += packet.getPayload().length();
-            ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
-            
-            // Check buffer for subsequent packets
-            while (receiverBuffer.containsKey(ExpectedSeqNum)) {
-                Packet buffered = receiverBuffer.remove(ExpectedSeqNum);
-                toLayer5(buffered.getPayload());
-                packetsToLayer5++;
-                totalGoodputBytes += buffered.getPayload().length();
-                ExpectedSeqNum = (ExpectedSeqNum + 1) % LimitSeqNo;
+            Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
+            toLayer3(dst, ack);
+            acksSent++;
+            totalDataBytes += 12 + 8 * ack.getSackBlockCount();
+            return ack;
+        }
+    
+        // Decide whether the ACK for an in-order arrival can wait. Returns
+        // false once ackEvery arrivals are waiting, and starts the ACK timer
+        // for the first one
+        private boolean deferAck() {
+            if (++pendingAcks >= ackEvery) {
+                return false;
             }
-            
+            if (!ackTimerRunning) {
+                startTimer(dst, ACK_TIMER, ackDelay);
+                ackTimerRunning = true;
+            }
+        
             if (traceLevel >= 2) {
-                System.out.println("GBN B_input: delivered packet(s), new expected = " + ExpectedSeqNum);
+                out.println(receiver + "_input: delaying ACK, " + pendingAcks + " pending");
             }
-        } else if (isInReceiverWindow(seqnum)) {
-            // Out-of-order but in window - buffer for SACK
-            if (!receiverBuffer.containsKey(seqnum)) {
-                receiverBuffer.put(seqnum, packet);
+            return true;
+        }
+    
+        // The delayed-ACK timer has run out
+        void ackTimeout() {
+            ackTimerRunning = false;
+            if (pendingAcks > 0) {
+                Packet ack = sendAck();
+            
                 if (traceLevel >= 2) {
-                    System.out.println("GBN B_input: buffered packet " + seqnum + " for SACK");
+                    out.println(receiver + "_timerinterrupt: sent delayed ACK for " + ack.getAcknum());
                 }
             }
         }
+
+        // Initialize the receiving side
+        void initReceiver() {
+            ExpectedSeqNum = FirstSeqNo;
+            receiverBuffer = new ReceiverBuffer(WindowSize);
         
-        // Send cumulative ACK with SACK
-        Packet ack = makeAckPacket((ExpectedSeqNum - 1 + LimitSeqNo) % LimitSeqNo);
-        toLayer3(B, ack);
-        acksSent++;
-        totalDataBytes += 12;
-        if (ack.getPayload() != null) {
-            totalDataBytes += ack.getPayload().length();
+            out.println(receiver + "_init: Expecting first packet with seqnum = " + ExpectedSeqNum);
         }
-        
-        if (traceLevel >= 2) {
-            System.out.println("GBN B_input: sent ACK for " + ack.getAcknum() + 
-                             (ack.getPayload() != null ? " with " + ack.getPayload() : ""));
-        }
-    }
 
-    // B_init - initialize B side
-    protected void bInit() {
-        ExpectedSeqNum = FirstSeqNo;
-        receiverBuffer = new HashMap<>();
+        // Helper method to check if sequence number is in sender window, which
+        // the congestion window may keep smaller than WindowSize
+        private boolean isInSenderWindow(int seqnum) {
+            if (WindowSize == 1) {
+                return seqnum == Base;
+            }
         
-        if (protocolMode == GBN_WITH_SACK) {
-            recentReceived = new LinkedList<>();
+            int distance = (seqnum - Base + LimitSeqNo) % LimitSeqNo;
+            return distance < cc.getWindow();
         }
-        
-        System.out.println("B_init: Expecting first packet with seqnum = " + ExpectedSeqNum);
-    }
-
-    // Helper method to check if sequence number is in sender window
-    private boolean isInSenderWindow(int seqnum) {
-        if (WindowSize == 1) {
-            return seqnum == Base;
+    
+        // Helper method to check if sequence number has been sent but not ACKed
+        private boolean isOutstanding(int seqnum) {
+            int distance = (seqnum - Base + LimitSeqNo) % LimitSeqNo;
+            return distance < (NextSeqNum - Base + LimitSeqNo) % LimitSeqNo;
         }
-        
-        int distance = (seqnum - Base + LimitSeqNo) % LimitSeqNo;
-        return distance < WindowSize;
-    }
     
-    // Helper method to check if sequence number is in receiver window
-    private boolean isInReceiverWindow(int seqnum) {
-        int distance = (seqnum - ExpectedSeqNum + LimitSeqNo) % LimitSeqNo;
-        return distance < WindowSize;
+        // Helper method to check if sequence number is in receiver window
+        private boolean isInReceiverWindow(int seqnum) {
+            int distance = (seqnum - ExpectedSeqNum + LimitSeqNo) % LimitSeqNo;
+            return distance < WindowSize;
+        }
     }
 
-    // Print final statistics
-    protected void Simulation_done() {
+    // Final statistics, summed over all flows
+    protected SimulationResult getResult() {
         // Calculate final statistics
         double lossRatio = 0;
         double corruptRatio = 0;
@@ -783,6 +1284,38 @@ public class StudentNetworkSimulator extends NetworkSimulator {
         double throughput = 0;
         double goodput = 0;
         
+        // Totals over all flows
+        int originalPacketsTransmitted = 0;
+        int retransmissions = 0;
+        int packetsToLayer5 = 0;
+        int acksSent = 0;
+        double totalRTT = 0;
+        int rttCount = 0;
+        double totalCommTime = 0;
+        int commTimeCount = 0;
+        int totalDataBytes = 0;
+        int totalGoodputBytes = 0;
+        double windowSum = 0;
+        int windowSamples = 0;
+        double goodputSum = 0;
+        double goodputSquares = 0;
+        for (Flow flow : flows) {
+            originalPacketsTransmitted += flow.originalPacketsTransmitted;
+            retransmissions += flow.retransmissions;
+            packetsToLayer5 += flow.packetsToLayer5;
+            acksSent += flow.acksSent;
+            totalRTT += flow.totalRTT;
+            rttCount += flow.rttCount;
+            totalCommTime += flow.totalCommTime;
+            commTimeCount += flow.commTimeCount;
+            totalDataBytes += flow.totalDataBytes;
+            totalGoodputBytes += flow.totalGoodputBytes;
+            windowSum += flow.windowSum;
+            windowSamples += flow.windowSamples;
+            goodputSum += flow.totalGoodputBytes;
+            goodputSquares += (double) flow.totalGoodputBytes * flow.totalGoodputBytes;
+        }
+        
         int totalPackets = originalPacketsTransmitted + retransmissions + acksSent;
         int lostPackets = retransmissions - corruptedPackets;
         
@@ -807,26 +1340,83 @@ public class StudentNetworkSimulator extends NetworkSimulator {
             goodput = totalGoodputBytes / totalTime;
         }
         
-        System.out.println("\n\n===============STATISTICS=======================");
-        System.out.println("Protocol: " + 
-            (protocolMode == STOP_AND_WAIT ? "Stop-and-Wait" : 
-             protocolMode == SELECTIVE_REPEAT ? "Selective Repeat" : "GBN with SACK"));
-        System.out.println("Number of original packets transmitted by A: " + originalPacketsTransmitted);
-        System.out.println("Number of retransmissions by A: " + retransmissions);
-        System.out.println("Number of data packets delivered to layer 5 at B: " + packetsToLayer5);
-        System.out.println("Number of ACK packets sent by B: " + acksSent);
-        System.out.println("Number of corrupted packets: " + corruptedPackets);
-        System.out.printf("Ratio of lost packets: %.6f\n", lossRatio);
-        System.out.printf("Ratio of corrupted packets: %.6f\n", corruptRatio);
-        System.out.printf("Average RTT: %.4f\n", avgRTT);
-        System.out.printf("Average communication time: %.4f\n", avgCommTime);
-        System.out.println("==================================================");
-        
-        System.out.println("\nEXTRA STATISTICS:");
-        System.out.printf("Total simulation time: %.4f\n", totalTime);
-        System.out.printf("Throughput: %.2f bytes/time unit\n", throughput);
-        System.out.printf("Goodput: %.2f bytes/time unit\n", goodput);
-        System.out.printf("Average packet delay: %.4f\n", avgCommTime);
-        System.out.println("==================================================");
+        return newResult()
+            .protocol(protocolMode == STOP_AND_WAIT ? "Stop-and-Wait" :
+                      protocolMode == SELECTIVE_REPEAT ? "Selective Repeat" : "GBN with SACK")
+            .window(WindowSize)
+            .timeout(RxmtInterval)
+            .originalPackets(originalPacketsTransmitted)
+            .retransmissions(retransmissions)
+            .delivered(packetsToLayer5)
+            .acks(acksSent)
+            .corrupted(corruptedPackets)
+            .lossRatio(lossRatio)
+            .corruptRatio(corruptRatio)
+            .averageRtt(avgRTT)
+            .averageCommTime(avgCommTime)
+            .throughput(throughput)
+            .goodput(goodput)
+            .averageWindow(windowSamples > 0 ? windowSum / windowSamples : 0)
+            // Jain's index over the flows' goodput: 1 when all get the
+            // same share, 1/n when one flow gets everything
+            .fairness(goodputSquares > 0 ? goodputSum * goodputSum / (flows.length * goodputSquares) : 1)
+            .build();
+    }
+
+    // Print final statistics
+    protected void Simulation_done() {
+        SimulationResult result = getResult();
+        
+        out.println("\n\n===============STATISTICS=======================");
+        out.println("Protocol: " + result.getProtocol());
+        out.println("Number of original packets transmitted by A: " + result.getOriginalPackets());
+        out.println("Number of retransmissions by A: " + result.getRetransmissions());
+        out.println("Number of data packets delivered to layer 5 at B: " + result.getDelivered());
+        out.println("Number of ACK packets sent by B: " + result.getAcks());
+        out.println("Number of corrupted packets: " + result.getCorrupted());
+        out.printf("Ratio of lost packets: %.6f\n", result.getLossRatio());
+        out.printf("Ratio of corrupted packets: %.6f\n", result.getCorruptRatio());
+        out.printf("Average RTT: %.4f\n", result.getAverageRtt());
+        out.printf("Average communication time: %.4f\n", result.getAverageCommTime());
+        out.println("==================================================");
+        
+        out.println("\nEXTRA STATISTICS:");
+        out.printf("Total simulation time: %.4f\n", result.getTotalTime());
+        out.printf("Throughput: %.2f bytes/time unit\n", result.getThroughput());
+        out.printf("Goodput: %.2f bytes/time unit\n", result.getGoodput());
+        out.printf("Average packet delay: %.4f\n", result.getAverageCommTime());
+        if (result.getPausedTime() > 0) {
+            out.printf("Layer 5 paused by full send buffer: %.4f\n", result.getPausedTime());
+        }
+        if (result.getQueueDrops() > 0) {
+            out.println("Packets dropped by the bottleneck queue: " + result.getQueueDrops());
+        }
+        String ccName = flows[0].cc.getName();
+        if (!ccName.equals("none") && result.getAverageWindow() > 0) {
+            out.printf("Average congestion window (%s): %.2f\n", ccName,
+                              result.getAverageWindow());
+        }
+        if (flows.length > 1) {
+            out.printf("Fairness index over %d flows: %.4f\n", flows.length,
+                              result.getFairness());
+        }
+        if (flows.length > 1 && flows.length <= MAX_FLOW_LINES) {
+            for (Flow flow : flows) {
+                out.printf("%s to %s: %d sent, %d retransmitted, %d delivered, "
+                                  + "%d ACK packets, %d ACKs piggybacked, delay %.4f",
+                                  flow.sender, flow.receiver, flow.originalPacketsTransmitted,
+                                  flow.retransmissions, flow.packetsToLayer5, flow.acksSent,
+                                  flow.piggybackedAcks,
+                                  flow.commTimeCount > 0 ? flow.totalCommTime / flow.commTimeCount : 0);
+                if (getLayer5PausedTime(flow.src) > 0) {
+                    out.printf(", paused %.4f", getLayer5PausedTime(flow.src));
+                }
+                if (!ccName.equals("none") && flow.windowSamples > 0) {
+                    out.printf(", window %.2f", flow.windowSum / flow.windowSamples);
+                }
+                out.println();
+            }
+        }
+        out.println("==================================================");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Sweep
+{
+    // Runs a grid of simulations in one JVM, several at a time, instead
+    // of starting java Project once per point as run_perf.bat does.  The
+    // grid is every combination of the comma-separated lists
+    //
+    //   java -Dlosses=0,0.1,0.2,0.3 -Dcorruptions=0,0.1,0.2 -Dwindows=8
+    //        -Dtimeouts=30 -Dseeds=1234 -Dmessages=100 -Davgdelay=200
+    //        [-Dthreads=N] [-Dcsv=file] [-Djson=file] [-Dsweepdir=dir] Sweep
+    //
+    // The points run quietly and their SimulationResults are appended,
+    // in grid order, to the -Dcsv and -Djson files, or printed as CSV
+    // when neither is given.  The other -D options (cc, link, channel,
+    // ...) apply to every point.  Deliveries are thrown away unless
+    // -Dsweepdir is set, in which case each point writes its OutputFile
+    // to a directory of its own there.
+
+    private final double loss;
+    private final double corrupt;
+    private final int window;
+    private final double timeout;
+    private final int seed;
+
+    public Sweep(double loss, double corrupt, int window, double timeout,
+                 int seed)
+    {
+        this.loss = loss;
+        this.corrupt = corrupt;
+        this.window = window;
+        this.timeout = timeout;
+        this.seed = seed;
+    }
+
+    public String getName()
+    {
+        return "loss" + loss + "_corrupt" + corrupt + "_window" + window +
+               "_timeout" + timeout + "_seed" + seed;
+    }
+
+    /* Run this point without printing anything */
+    public SimulationResult run(int messages, double avgDelay, File directory)
+    {
+        StudentNetworkSimulator simulator =
+            new StudentNetworkSimulator(messages, loss, corrupt, avgDelay,
+                                        0, seed, window, timeout, null);
+        if (directory != null)
+        {
+            directory = new File(directory, getName());
+            directory.mkdirs();
+        }
+        simulator.setOutputDirectory(directory);
+        return simulator.runSimulator();
+    }
+
+    public final static void main(String[] argv) throws Exception
+    {
+        double[] losses = doubles(System.getProperty("losses", "0,0.1,0.2,0.3"));
+        double[] corruptions = doubles(System.getProperty("corruptions", "0,0.1,0.2"));
+        int[] windows = ints(System.getProperty("windows", "8"));
+        double[] timeouts = doubles(System.getProperty("timeouts", "30"));
+        int[] seeds = ints(System.getProperty("seeds", "1234"));
+        int messages = Integer.getInteger("messages", 100);
+        double avgDelay = Double.parseDouble(System.getProperty("avgdelay", "200"));
+        int threads = Integer.getInteger("threads",
+                                         Runtime.getRuntime().availableProcessors());
+        String dir = System.getProperty("sweepdir");
+        File directory = (dir != null) ? new File(dir) : null;
+
+        List<Sweep> points = new ArrayList<Sweep>();
+        for (double loss : losses)
+        {
+            for (double corrupt : corruptions)
+            {
+                for (int window : windows)
+                {
+                    for (double timeout : timeouts)
+                    {
+                        for (int seed : seeds)
+                        {
+                            points.add(new Sweep(loss, corrupt, window,
+                                                 timeout, seed));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<ResultWriter> writers = new ArrayList<ResultWriter>();
+        if (System.getProperty("csv") != null)
+        {
+            writers.add(new CsvResultWriter(new File(System.getProperty("csv"))));
+        }
+        if (System.getProperty("json") != null)
+        {
+            writers.add(new JsonResultWriter(new File(System.getProperty("json"))));
+        }
+        if (writers.isEmpty())
+        {
+            writers.add(new CsvResultWriter(new PrintWriter(System.out)));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<SimulationResult>> results = new ArrayList<Future<SimulationResult>>();
+        for (Sweep point : points)
+        {
+            results.add(executor.submit(() -> point.run(messages, avgDelay,
+                                                        directory)));
+        }
+
+        try
+        {
+            for (Future<SimulationResult> result : results)
+            {
+                for (ResultWriter writer : writers)
+                {
+                    writer.write(result.get());
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            for (ResultWriter writer : writers)
+            {
+                writer.close();
+            }
+        }
+
+        System.err.printf("Sweep of %d points on %d threads finished in %.3f s%n",
+                          points.size(), threads,
+                          (System.nanoTime() - start) / 1e9);
+    }
+
+    private static double[] doubles(String list)
+    {
+        String[] items = list.split(",");
+        double[] result = new double[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            result[i] = Double.parseDouble(items[i].trim());
+        }
+
+        return result;
+    }
+
+    private static int[] ints(String list)
+    {
+        String[] items = list.split(",");
+        int[] result = new int[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            result[i] = Integer.parseInt(items[i].trim());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+public class TimerHandle
+{
+    // A timer scheduled through NetworkSimulator.scheduleTimer().  The
+    // handle is the only reference the protocol needs to cancel it; a
+    // cancelled timer's event stays in the event list and is discarded
+    // when it reaches the front, so cancelling costs O(1).
+    private int entity;
+    private int tag;
+    private double expiry;
+    private boolean pending;
+
+    public TimerHandle(int ent, int t, double when)
+    {
+        entity = ent;
+        tag = t;
+        expiry = when;
+        pending = true;
+    }
+
+    public int getEntity()
+    {
+        return entity;
+    }
+
+    public int getTag()
+    {
+        return tag;
+    }
+
+    public double getExpiry()
+    {
+        return expiry;
+    }
+
+    public boolean isPending()
+    {
+        return pending;
+    }
+
+    /* Returns false if the timer had already fired or been cancelled */
+    public boolean cancel()
+    {
+        boolean wasPending = pending;
+        pending = false;
+        return wasPending;
+    }
+
+    public String toString()
+    {
+        return("entity: " + entity + "  tag: " + tag + "  expiry: " + expiry +
+               (pending ? "" : "  (inactive)"));
+    }
+}
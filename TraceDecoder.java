@@ -0,0 +1,186 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class TraceDecoder
+{
+    // Prints a binary trace written with -Dtracefile as the simulator's
+    // text trace would have shown those events:
+    //
+    //   java TraceDecoder tracefile [entity]
+    //
+    // With an entity only the records about it are printed.  The record
+    // keeps the number of SACK blocks on a packet, not their edges.
+
+    public final static void main(String[] argv) throws IOException
+    {
+        if (argv.length < 1)
+        {
+            System.out.println("usage: java TraceDecoder tracefile [entity]");
+            System.exit(1);
+        }
+
+        int only = (argv.length > 1) ? Integer.parseInt(argv[1]) : -1;
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        decode(new File(argv[0]), only, out);
+        out.flush();
+    }
+
+    /* Print every record in file, or only those for entity only when it
+       is not negative */
+    public static void decode(File file, int only, PrintStream out)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(TraceWriter.RECORD_SIZE << 12);
+            buffer.limit(TraceWriter.HEADER_SIZE);
+            read(channel, buffer);
+            if ((buffer.remaining() < TraceWriter.HEADER_SIZE) ||
+                (buffer.getLong() != TraceWriter.MAGIC))
+            {
+                throw new IOException(file + " is not a trace");
+            }
+            int version = buffer.getInt();
+            int recordSize = buffer.getInt();
+            if ((version != TraceWriter.VERSION) ||
+                (recordSize != TraceWriter.RECORD_SIZE))
+            {
+                throw new IOException(file + ": unsupported trace version " + version);
+            }
+
+            while (true)
+            {
+                buffer.clear();
+                read(channel, buffer);
+                if (buffer.remaining() < recordSize)
+                {
+                    break;
+                }
+                while (buffer.remaining() >= recordSize)
+                {
+                    int at = buffer.position();
+                    if ((only < 0) || (buffer.getInt(at + 20) == only))
+                    {
+                        print(buffer, at, out);
+                    }
+                    buffer.position(at + recordSize);
+                }
+            }
+        }
+    }
+
+    /* Fill buffer from the channel, leaving it ready to read */
+    private static void read(FileChannel channel, ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining() && (channel.read(buffer) > 0))
+        {
+        }
+        buffer.flip();
+    }
+
+    private static void print(ByteBuffer r, int at, PrintStream out)
+    {
+        double time = r.getDouble(at);
+        int entity = r.getInt(at + 20);
+        byte type = r.get(at + 24);
+        int flags = r.get(at + 25);
+        int code = r.getShort(at + 30);
+        String name = entityName(entity);
+
+        switch (type)
+        {
+            case TraceWriter.EVENT:
+                out.println();
+                out.print("EVENT time: " + time);
+                out.print("  type: " + code);
+                out.println("  entity: " + entity);
+                break;
+
+            case TraceWriter.SEND:
+                if ((flags & TraceWriter.RETRANSMITTED) != 0)
+                {
+                    out.println(name + ": retransmitting packet " + r.getInt(at + 8));
+                }
+                out.println("toLayer3: " + packet(r, at));
+                if ((flags & TraceWriter.LOST) != 0)
+                {
+                    out.println("toLayer3: packet being lost");
+                }
+                else if ((flags & TraceWriter.DROPPED) != 0)
+                {
+                    out.println("toLayer3: packet dropped by the bottleneck queue");
+                }
+                else if ((flags & TraceWriter.CORRUPTED) != 0)
+                {
+                    out.println("toLayer3: packet being corrupted");
+                }
+                break;
+
+            case TraceWriter.ARRIVE:
+                out.println(name + "_input: got packet " + packet(r, at));
+                break;
+
+            case TraceWriter.GENERATE:
+                out.println(name + "_output: got message from layer 5: " + payload(r, at));
+                break;
+
+            case TraceWriter.DELIVER:
+                out.println(name + ": delivered to layer 5: " + payload(r, at));
+                break;
+
+            case TraceWriter.TIMER_START:
+                out.println("startTimer: starting timer " + code + " at " + time);
+                break;
+
+            case TraceWriter.TIMER_STOP:
+                out.println("stopTimer: stopping timer " + code + " at " + time);
+                break;
+
+            case TraceWriter.TIMEOUT:
+                out.println(name + "_timerinterrupt: timer " + code + " expired");
+                break;
+
+            default:
+                out.println("Unknown trace record " + type + " at time " + time);
+        }
+    }
+
+    /* As Packet.toString() prints it */
+    private static String packet(ByteBuffer r, int at)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("seqnum: ").append(r.getInt(at + 8));
+        sb.append("  acknum: ").append(r.getInt(at + 12));
+        sb.append("  checksum: ").append(r.getInt(at + 16));
+        sb.append("  payload: ").append(payload(r, at));
+        int sack = r.get(at + 29);
+        if (sack > 0)
+        {
+            sb.append("  sack: ").append(sack).append((sack == 1) ? " block" : " blocks");
+        }
+
+        return sb.toString();
+    }
+
+    private static String payload(ByteBuffer r, int at)
+    {
+        int length = r.get(at + 26) & 0xff;
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            text[i] = (char)(r.get((i == 0) ? at + 27 : at + 28) & 0xff);
+        }
+
+        return new String(text);
+    }
+
+    private static String entityName(int entity)
+    {
+        return (entity == NetworkSimulator.A) ? "A" :
+               (entity == NetworkSimulator.B) ? "B" : String.valueOf(entity);
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.*;
+import java.util.ArrayList;
+
+public class TraceSource implements TrafficSource
+{
+    // Replays a recorded arrival pattern.  Each line of the trace file
+    // holds the interval before a message and, optionally, its size;
+    // blank lines and lines starting with '#' are skipped.  A missing
+    // size means a full-size message.  The trace starts over when it
+    // runs out.  Every source replaying a file shares one parsed copy.
+    private double[] intervals;
+    private int[] sizes;
+
+    // The simulator draws the interval to the next message before the
+    // size of the current one, so the two are read from separate places
+    private int nextInterval;
+    private int nextSize;
+
+    public TraceSource(double[] intervals, int[] sizes)
+    {
+        this.intervals = intervals;
+        this.sizes = sizes;
+        nextInterval = 0;
+        nextSize = 0;
+    }
+
+    // Parse a trace file into intervals and sizes; returns null (after
+    // saying why on log) if it cannot be read or has no usable lines
+    public static TraceSource load(String fileName, PrintStream log)
+    {
+        ArrayList<double[]> lines = new ArrayList<double[]>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName)))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                double interval = Double.parseDouble(fields[0]);
+                double size = NetworkSimulator.MAXDATASIZE;
+                if (fields.length > 1)
+                {
+                    size = Math.max(1, Math.min(Integer.parseInt(fields[1]),
+                                                NetworkSimulator.MAXDATASIZE));
+                }
+                lines.add(new double[] { Math.max(0, interval), size });
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            log.println("Cannot read traffic trace \"" + fileName +
+                        "\": " + e.getMessage());
+            return null;
+        }
+
+        if (lines.isEmpty())
+        {
+            log.println("Traffic trace \"" + fileName + "\" is empty");
+            return null;
+        }
+
+        double[] intervals = new double[lines.size()];
+        int[] sizes = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++)
+        {
+            intervals[i] = lines.get(i)[0];
+            sizes[i] = (int) lines.get(i)[1];
+        }
+
+        return new TraceSource(intervals, sizes);
+    }
+
+    // Another source replaying the same trace from its start
+    public TraceSource copy()
+    {
+        return new TraceSource(intervals, sizes);
+    }
+
+    public double nextInterval()
+    {
+        double interval = intervals[nextInterval];
+        nextInterval = (nextInterval + 1) % intervals.length;
+        return interval;
+    }
+
+    public int nextSize()
+    {
+        int size = sizes[nextSize];
+        nextSize = (nextSize + 1) % sizes.length;
+        return size;
+    }
+
+    public String getName()
+    {
+        return "trace";
+    }
+}
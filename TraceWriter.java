@@ -0,0 +1,231 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+public class TraceWriter
+{
+    // A binary event trace, for runs too long to trace as text.  Each
+    // event is a fixed-size record encoded into a ring buffer by the
+    // simulation thread and written out in large chunks by a background
+    // thread, so tracing costs the simulation a few stores per event.
+    // TraceDecoder turns a trace back into text.
+    //
+    // The file starts with MAGIC, the format version and RECORD_SIZE,
+    // and then holds one big-endian record per event:
+    //
+    //   0  double  time
+    //   8  int     seqnum
+    //  12  int     acknum
+    //  16  int     checksum
+    //  20  int     entity
+    //  24  byte    record type
+    //  25  byte    flags
+    //  26  byte    payload length
+    //  27  byte    first payload byte
+    //  28  byte    last payload byte
+    //  29  byte    SACK blocks
+    //  30  short   event type (EVENT) or timer tag
+    //
+    // The simulator's payloads are one letter repeated, with the first
+    // byte replaced when corrupted, so the two payload bytes and the
+    // length give the whole payload back.
+    public static final long MAGIC = 0x5244545452414345L;  // "RDTTRACE"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+
+    // Record types
+    public static final byte EVENT = 0;        // an event taken off the list
+    public static final byte SEND = 1;         // a packet given to layer 3
+    public static final byte ARRIVE = 2;       // a packet handed to the receiver
+    public static final byte GENERATE = 3;     // a message from layer 5
+    public static final byte DELIVER = 4;      // a message given to layer 5
+    public static final byte TIMER_START = 5;
+    public static final byte TIMER_STOP = 6;
+    public static final byte TIMEOUT = 7;
+
+    // Flags on SEND records
+    public static final byte LOST = 1;
+    public static final byte CORRUPTED = 2;
+    public static final byte DROPPED = 4;
+    public static final byte RETRANSMITTED = 8;
+
+    public static final int DEFAULT_RECORDS = 1 << 16;
+
+    private final ByteBuffer ring;
+    private final int capacity;  // bytes, a multiple of RECORD_SIZE
+    private final FileChannel channel;
+    private final Thread writer;
+
+    // Bytes produced and consumed so far; only the simulation thread
+    // moves head and only the writer thread moves tail
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private long records;
+
+    public TraceWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_RECORDS);
+    }
+
+    public TraceWriter(File file, int ringRecords) throws IOException
+    {
+        capacity = Math.max(ringRecords, 16) * RECORD_SIZE;
+        ring = ByteBuffer.allocateDirect(capacity);
+        channel = FileChannel.open(file.toPath(),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+        while (header.hasRemaining())
+        {
+            channel.write(header);
+        }
+
+        writer = new Thread(this::drain, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /* A record about a packet */
+    public void packet(byte type, double time, int entity, Packet packet,
+                       int flags)
+    {
+        byte[] payload = packet.payloadBytes();
+        int length = (payload == null) ? 0 : payload.length;
+        put(type, time, entity, packet.getSeqnum(), packet.getAcknum(),
+            packet.getChecksum(), flags, length,
+            (length > 0) ? payload[0] : 0,
+            (length > 0) ? payload[length - 1] : 0,
+            packet.getSackBlockCount(), 0);
+    }
+
+    /* A record about a message, data being its first length bytes */
+    public void message(byte type, double time, int entity, byte[] data,
+                        int length)
+    {
+        put(type, time, entity, -1, -1, 0, 0, length,
+            (length > 0) ? data[0] : 0,
+            (length > 0) ? data[length - 1] : 0, 0, 0);
+    }
+
+    public void message(byte type, double time, int entity, String data)
+    {
+        int length = data.length();
+        put(type, time, entity, -1, -1, 0, 0, length,
+            (length > 0) ? (byte)data.charAt(0) : 0,
+            (length > 0) ? (byte)data.charAt(length - 1) : 0, 0, 0);
+    }
+
+    /* A record with only an entity and a code: the event type for
+       EVENT, the timer tag for the timer records */
+    public void event(byte type, double time, int entity, int code)
+    {
+        put(type, time, entity, -1, -1, 0, 0, 0, (byte)0, (byte)0, 0, code);
+    }
+
+    private void put(byte type, double time, int entity, int seq, int ack,
+                     int checksum, int flags, int length, byte first,
+                     byte last, int sack, int code)
+    {
+        // Wait for the writer if the ring is full
+        long h = head;
+        while (h - tail >= capacity)
+        {
+            if (failure != null)
+            {
+                return;
+            }
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+
+        int at = (int)(h % capacity);
+        ring.putDouble(at, time);
+        ring.putInt(at + 8, seq);
+        ring.putInt(at + 12, ack);
+        ring.putInt(at + 16, checksum);
+        ring.putInt(at + 20, entity);
+        ring.put(at + 24, type);
+        ring.put(at + 25, (byte)flags);
+        ring.put(at + 26, (byte)Math.min(length, 255));
+        ring.put(at + 27, first);
+        ring.put(at + 28, last);
+        ring.put(at + 29, (byte)Math.min(sack, 127));
+        ring.putShort(at + 30, (short)code);
+        head = h + RECORD_SIZE;
+        records++;
+    }
+
+    /* The writer thread: once an eighth of the ring has filled, or the
+       trace is closing, write what has been produced in chunks that do
+       not wrap, until closed and empty */
+    private void drain()
+    {
+        ByteBuffer view = ring.duplicate();
+        try
+        {
+            while (true)
+            {
+                boolean closing = closed;
+                long t = tail;
+                long h = head;
+                if (h == t && closing)
+                {
+                    break;
+                }
+                if ((h - t < capacity / 8) && !closing)
+                {
+                    LockSupport.parkNanos(100000);
+                    continue;
+                }
+
+                int from = (int)(t % capacity);
+                int length = (int)Math.min(h - t, capacity - from);
+                view.limit(from + length).position(from);
+                while (view.hasRemaining())
+                {
+                    channel.write(view);
+                }
+                tail = t + length;
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    public long getRecords()
+    {
+        return records;
+    }
+
+    /* Wait for the writer to finish and close the file */
+    public void close() throws IOException
+    {
+        closed = true;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.function.DoubleSupplier;
+
+public interface TrafficSource
+{
+    // A layer-5 message source.  The simulator asks for the time to the
+    // next message each time one arrives, and for the size of each
+    // message as it is generated.
+    public double nextInterval();
+
+    // Size of the next message, 1 to NetworkSimulator.MAXDATASIZE bytes
+    public int nextSize();
+
+    public String getName();
+
+    // A message size uniform on 1..MAXDATASIZE from a uniform draw, or
+    // MAXDATASIZE when sizes is null
+    static int drawSize(DoubleSupplier sizes)
+    {
+        if (sizes == null)
+        {
+            return NetworkSimulator.MAXDATASIZE;
+        }
+
+        int size = 1 + (int) (sizes.getAsDouble() * NetworkSimulator.MAXDATASIZE);
+        return Math.min(size, NetworkSimulator.MAXDATASIZE);
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.function.DoubleSupplier;
+
+public class UniformSource implements TrafficSource
+{
+    // The original source: intervals uniform on [0, 2 * mean], so the
+    // mean is mean, and full-size messages unless sizes is given
+    private double mean;
+    private DoubleSupplier random;
+    private DoubleSupplier sizes;
+
+    public UniformSource(double mean, DoubleSupplier random,
+                         DoubleSupplier sizes)
+    {
+        this.mean = mean;
+        this.random = random;
+        this.sizes = sizes;
+    }
+
+    public double nextInterval()
+    {
+        return 2 * mean * random.getAsDouble();
+    }
+
+    public int nextSize()
+    {
+        return TrafficSource.drawSize(sizes);
+    }
+
+    public String getName()
+    {
+        return "uniform";
+    }
+}
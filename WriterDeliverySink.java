@@ -0,0 +1,64 @@
+import java.io.*;
+
+public class WriterDeliverySink implements DeliverySink
+{
+    // The original output: a FileWriter per file, with two write calls
+    // per message as it is delivered.  Kept for comparison with the
+    // batched sinks.
+    private File directory;
+    private FileWriter outFile;
+    private FileWriter outFileA;  // opened on A's first delivery
+    private FileWriter outFileFlows;  // deliveries of the other pairs
+
+    public WriterDeliverySink(File directory) throws IOException
+    {
+        this.directory = directory;
+        outFile = new FileWriter(new File(directory, "OutputFile"));
+    }
+
+    public void deliver(int entity, String data) throws IOException
+    {
+        if (entity == NetworkSimulator.B)
+        {
+            outFile.write(data);
+            outFile.write('\n');
+        }
+        else if (entity == NetworkSimulator.A)
+        {
+            if (outFileA == null)
+            {
+                outFileA = new FileWriter(new File(directory, "OutputFileA"));
+            }
+            outFileA.write(data);
+            outFileA.write('\n');
+        }
+        else
+        {
+            if (outFileFlows == null)
+            {
+                outFileFlows = new FileWriter(new File(directory, "OutputFileFlows"));
+            }
+            outFileFlows.write(entity + " ");
+            outFileFlows.write(data);
+            outFileFlows.write('\n');
+        }
+    }
+
+    public void close() throws IOException
+    {
+        outFile.close();
+        if (outFileA != null)
+        {
+            outFileA.close();
+        }
+        if (outFileFlows != null)
+        {
+            outFileFlows.close();
+        }
+    }
+
+    public String getName()
+    {
+        return "writer";
+    }
+}